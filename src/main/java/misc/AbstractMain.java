@@ -1,6 +1,5 @@
 package misc;
 
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
@@ -15,7 +14,18 @@ abstract class AbstractMain {
 
     public boolean debug = false;
 
-    public abstract void run(Global global, InputStream in, PrintWriter out);
+    public boolean parallel = false;
+
+    public boolean pipeline = false;
+
+    public boolean optimize = true;
+
+    /**
+     * format of the statistics, "text" or "json", null for none
+     */
+    public String stats = null;
+
+    public abstract void run(Global global, Source in, PrintWriter out);
 
     public void run(String[] args) {
         Global global = null;
@@ -38,7 +48,7 @@ abstract class AbstractMain {
     }
 
     public void run(Global global) {
-        InputStream in = global.openInput(source);
+        Source in = global.openSource(source);
         OutputStream out = global.openOutput(object);
         PrintWriter writer = new PrintWriter(out, true);
         run(global, in, writer);
@@ -72,6 +82,21 @@ abstract class AbstractMain {
         if (args[i].equals("-debug")) {
             debug = true;
             return 1;
+        } else if (args[i].equals("-parallel")) {
+            parallel = true;
+            return 1;
+        } else if (args[i].equals("-pipeline")) {
+            pipeline = true;
+            return 1;
+        } else if (args[i].equals("-noopt")) {
+            optimize = false;
+            return 1;
+        } else if (args[i].equals("-stats")) {
+            stats = "text";
+            return 1;
+        } else if (args[i].equals("-stats=json")) {
+            stats = "json";
+            return 1;
         } else if (args[i].equals("-?") || args[i].equals("-help")) {
             printHelp(System.out);
             throw abort;
@@ -99,6 +124,11 @@ abstract class AbstractMain {
         printUsage(out);
         out.println("options :");
         out.println("  -debug    Prints debug messages");
+        out.println("  -parallel Uses all cores for large sources");
+        out.println("  -pipeline Scans and parses on two threads");
+        out.println("  -noopt    Does not optimize the analyzed trees");
+        out.println("  -stats    Prints the time, allocation and counts of each phase");
+        out.println("  -stats=json Same in JSON");
         out.println("  -? -help  Prints help");
     }
 }
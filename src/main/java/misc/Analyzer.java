@@ -2,28 +2,72 @@ package misc;
 
 import misc.Tree.*;
 
-public class Analyzer implements Tree.Visitor, Tokens, Kinds {
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+public class Analyzer implements Tree.Visitor, TreeArena.Visitor, Tokens, Kinds {
+
+    /**
+     * number of function bodies checked by a task, smaller programs are
+     * checked sequentially
+     */
+    public static final int BODIES = 16;
 
     private final Global global;
+    private final ForkJoinPool pool;
     private Scope scope;
 
+    /**
+     * arena of the nodes analyzed by index
+     */
+    private TreeArena arena;
+
+    /**
+     * functions used by the body being analyzed, if they are recorded
+     */
+    private Map<Name, Symbol> uses;
+
+    /**
+     * checks the function bodies in parallel with -parallel.
+     */
     public Analyzer(Global global) {
+        this(global, global.parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * checks the function bodies in parallel in pool, or sequentially if it is null.
+     */
+    public Analyzer(Global global, ForkJoinPool pool) {
         this.global = global;
+        this.pool = pool;
         this.scope = null;
     }
 
     public Scope createGlobalScope() {
         Scope scope = new Scope(global);
-        Type intToUnit = new Type.FunType(new Type[]{Type.INT}, Type.UNIT);
-        Type toInt = new Type.FunType(new Type[]{}, Type.INT);
-        scope.enter(new Symbol(0, "printInt", FUNCTION, intToUnit));
-        scope.enter(new Symbol(0, "printChar", FUNCTION, intToUnit));
-        scope.enter(new Symbol(0, "readInt", FUNCTION, toInt));
-        scope.enter(new Symbol(0, "readChar", FUNCTION, toInt));
+        Type intToUnit = global.types.function(new Type[]{Type.INT}, Type.UNIT);
+        Type toInt = global.types.function(new Type[]{}, Type.INT);
+        scope.enter(new Symbol(0, global.names.enter("printInt"), FUNCTION, intToUnit));
+        scope.enter(new Symbol(0, global.names.enter("printChar"), FUNCTION, intToUnit));
+        scope.enter(new Symbol(0, global.names.enter("readInt"), FUNCTION, toInt));
+        scope.enter(new Symbol(0, global.names.enter("readChar"), FUNCTION, toInt));
         return scope;
     }
 
     public Type analyze(Tree tree, Scope scope) {
+        Events.Phase event = Events.phase("Analyzer.analyze");
+        Type type = analyzeIn(tree, scope);
+        if (event != null && event.shouldCommit()) {
+            event.source = global.source;
+            event.nodes = new TreeCounter().count(tree).nodes;
+            event.commit();
+        }
+        return type;
+    }
+
+    private Type analyzeIn(Tree tree, Scope scope) {
         Scope backup = this.scope;
         this.scope = scope;
         Type type = analyze(tree);
@@ -41,7 +85,7 @@ public class Analyzer implements Tree.Visitor, Tokens, Kinds {
     private Type[] analyze(Tree[] trees, Scope scope) {
         Type[] types = new Type[trees.length];
         for (int i = 0; i < trees.length; i++)
-            types[i] = analyze(trees[i], scope);
+            types[i] = analyzeIn(trees[i], scope);
         return types;
     }
 
@@ -50,7 +94,7 @@ public class Analyzer implements Tree.Visitor, Tokens, Kinds {
     }
 
     private boolean checkIfEqual(int pos, Type expected, Type found, String msg) {
-        if (!found.equals(expected)) {
+        if (found != expected) {
             error(pos, expected, found, msg);
             return false;
         }
@@ -95,11 +139,78 @@ public class Analyzer implements Tree.Visitor, Tokens, Kinds {
      */
     public void caseProgram(Program tree) {
         Scope scope = new Scope(this.scope);
-        analyze(tree.decls, scope);
-        analyze(tree.expr, scope);
+        if (pool != null && tree.decls.length > BODIES) analyzeInParallel(tree.decls, scope);
+        else analyze(tree.decls, scope);
+        analyzeIn(tree.expr, scope);
         tree.typ = Type.NONE;
     }
 
+    /**
+     * Enters the signatures of the declarations in scope, then checks their
+     * bodies in parallel. A body only sees the functions declared before it,
+     * through a view of scope. The errors of each declaration are recorded,
+     * and reported in the order of the declarations once all are checked.
+     */
+    private void analyzeInParallel(Tree[] decls, Scope scope) {
+        Scope[] scopes = new Scope[decls.length];
+        Diagnostics[] diagnostics = new Diagnostics[decls.length];
+        Scope backup = this.scope;
+        this.scope = scope;
+        try {
+            for (int i = 0; i < decls.length; i++) {
+                FunDecl decl = (FunDecl) decls[i];
+                if (decl.typ != null) throw new Error("type already assigned.");
+                diagnostics[i] = new Diagnostics();
+                global.record(diagnostics[i]);
+                scopes[i] = declare(decl, scope.view());
+            }
+        } finally {
+            global.record(null);
+            this.scope = backup;
+        }
+        pool.invoke(new Bodies(decls, scopes, diagnostics, 0, decls.length));
+        for (Diagnostics errors : diagnostics) errors.replay(global);
+    }
+
+    /**
+     * Checks the bodies from start to end, splitting the range in tasks of
+     * at most BODIES declarations.
+     */
+    @SuppressWarnings("serial")
+    private class Bodies extends RecursiveAction {
+        private final Tree[] decls;
+        private final Scope[] scopes;
+        private final Diagnostics[] diagnostics;
+        private final int start;
+        private final int end;
+
+        Bodies(Tree[] decls, Scope[] scopes, Diagnostics[] diagnostics, int start, int end) {
+            this.decls = decls;
+            this.scopes = scopes;
+            this.diagnostics = diagnostics;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (end - start > BODIES) {
+                int middle = (start + end) >>> 1;
+                ForkJoinTask.invokeAll(new Bodies(decls, scopes, diagnostics, start, middle),
+                        new Bodies(decls, scopes, diagnostics, middle, end));
+                return;
+            }
+            Analyzer analyzer = new Analyzer(global, null);
+            try {
+                for (int i = start; i < end; i++) {
+                    global.record(diagnostics[i]);
+                    analyzer.define((FunDecl) decls[i], scopes[i]);
+                }
+            } finally {
+                global.record(null);
+            }
+        }
+    }
+
     /**
      * D    = FunDecl ident { F }({ta}) T(tt) E(te)
      * Analyses arguments {F} in a new scope, nested in the current scope
@@ -109,17 +220,65 @@ public class Analyzer implements Tree.Visitor, Tokens, Kinds {
      * te <: tt
      */
     public void caseFunDecl(FunDecl tree) {
-        Scope scopeArgs = new Scope(scope);
+        define(tree, declare(tree, scope));
+    }
+
+    /**
+     * Analyses the signature of the function and enters its symbol in the
+     * current scope. Returns the scope of the arguments, nested in outer.
+     */
+    private Scope declare(FunDecl tree, Scope outer) {
+        Scope scopeArgs = signature(tree, outer);
+        scope.enter(tree.sym);
+        return scopeArgs;
+    }
+
+    /**
+     * Analyses the arguments and the result of the function, and creates
+     * its symbol. Returns the scope of the arguments, nested in outer.
+     */
+    Scope signature(FunDecl tree, Scope outer) {
+        Scope scopeArgs = new Scope(outer);
         Type[] ta = analyze(tree.args, scopeArgs);
         Type tt = analyze(tree.result);
-        Type.FunType tf = new Type.FunType(ta, tt);
+        Type.FunType tf = global.types.function(ta, tt);
         tree.sym = new Symbol(tree.pos, tree.name, FUNCTION, tf);
-        scope.enter(tree.sym);
-        Type te = analyze(tree.body, scopeArgs);
+        return scopeArgs;
+    }
+
+    /**
+     * Analyses the body of the function in the scope of its arguments.
+     */
+    private void define(FunDecl tree, Scope scopeArgs) {
+        Type tt = ((Type.FunType) tree.sym.type).type;
+        Type te = analyzeIn(tree.body, scopeArgs);
         this.checkIfSubtype(tree.pos, tt, te, "Invalid Type.");
         tree.typ = Type.NONE;
     }
 
+    /**
+     * Analyses the body of the function, and records in uses the symbols of
+     * the functions it refers to, null for the undefined names.
+     */
+    void define(FunDecl tree, Scope scopeArgs, Map<Name, Symbol> uses) {
+        this.uses = uses;
+        try {
+            define(tree, scopeArgs);
+        } finally {
+            this.uses = null;
+        }
+    }
+
+    /**
+     * looks up the name in the current scope, and records the use of the
+     * functions and undefined names.
+     */
+    private Symbol lookup(Name name) {
+        Symbol sym = scope.lookup(name);
+        if (uses != null && (sym == null || sym.isFunction())) uses.put(name, sym);
+        return sym;
+    }
+
     /**
      * S    = VarDecl ident T(tt) E(te)
      * Analyse expression E in the current scope. Adds a new symbol
@@ -169,7 +328,7 @@ public class Analyzer implements Tree.Visitor, Tokens, Kinds {
      */
     public void caseListType(ListType tree) {
         Type tt = analyze(tree.elements);
-        tree.typ = new Type.ListType(tt);
+        tree.typ = global.types.list(tt);
     }
 
     /**
@@ -179,7 +338,7 @@ public class Analyzer implements Tree.Visitor, Tokens, Kinds {
     public void caseFunType(FunType tree) {
         Type[] ts = analyze(tree.args);
         Type tt = analyze(tree.result);
-        tree.typ = new Type.FunType(ts, tt);
+        tree.typ = global.types.function(ts, tt);
     }
 
     /**
@@ -211,9 +370,16 @@ public class Analyzer implements Tree.Visitor, Tokens, Kinds {
         Type tc = analyze(tree.cond);
         Type t1 = analyze(tree.thenp);
         Type t2 = analyze(tree.elsep);
-        this.checkIfEqual(tree.pos, Type.INT, tc, " Incompatible types.");
-        if (!Type.areComparable(t1, t2)) error(tree.pos, "THEN and ELSE blocks must be of comparable types.");
-        tree.typ = Type.max(t1, t2);
+        tree.typ = conditional(tree.pos, tc, t1, t2);
+    }
+
+    /**
+     * checks the types of a conditional expression, returns its type.
+     */
+    private Type conditional(int pos, Type tc, Type t1, Type t2) {
+        this.checkIfEqual(pos, Type.INT, tc, " Incompatible types.");
+        if (!Type.areComparable(t1, t2)) error(pos, "THEN and ELSE blocks must be of comparable types.");
+        return Type.max(t1, t2);
     }
 
     /**
@@ -224,12 +390,13 @@ public class Analyzer implements Tree.Visitor, Tokens, Kinds {
      * t  = Type.UNIT
      */
     public void caseAssign(Assign tree) {
-        Symbol sym = scope.lookup(tree.name);
+        Symbol sym = lookup(tree.name);
         if (sym == null) {
             error(tree.pos, tree.name + " not defined.");
         } else {
             if (sym.isVariable()) {
                 tree.sym = sym;
+                sym.assigned = true;
                 Type t1 = analyze(tree.value);
                 this.checkIfSubtype(tree.pos, sym.type, t1, " Invalid affectation type");
             } else {
@@ -245,7 +412,7 @@ public class Analyzer implements Tree.Visitor, Tokens, Kinds {
      * t  = sym.type
      */
     public void caseIdent(Ident tree) {
-        Symbol sym = scope.lookup(tree.name);
+        Symbol sym = lookup(tree.name);
         if (sym == null) {
             error(tree.pos, tree.name + " not defined.");
             tree.typ = Type.BAD;
@@ -276,7 +443,7 @@ public class Analyzer implements Tree.Visitor, Tokens, Kinds {
      * t  = Type.ListType(Type.BOTTOM)
      */
     public void caseNilLit(NilLit tree) {
-        tree.typ = new Type.ListType(Type.BOTTOM);
+        tree.typ = global.types.NIL;
     }
 
     /**
@@ -336,7 +503,7 @@ public class Analyzer implements Tree.Visitor, Tokens, Kinds {
             case CONS:
                 t1 = analyze(tree.left);
                 t2 = analyze(tree.right);
-                Type.ListType t = new Type.ListType(t1);
+                Type.ListType t = global.types.list(t1);
                 if (!Type.areComparable(t, t2)) {
                     error(tree.pos, "Incompatible list types");
                     tree.typ = Type.BAD;
@@ -383,26 +550,27 @@ public class Analyzer implements Tree.Visitor, Tokens, Kinds {
     public void caseFunCall(FunCall tree) {
         Type tf = analyze(tree.expression);
         Type[] ta = analyze(tree.args);
-        if (tf instanceof Type.FunType) {
-            Type.FunType funtype = (Type.FunType) tf;
-            Type tt = funtype.type;
-            if (funtype.args.length == ta.length) {
-                for (int i = 0; i < ta.length; i++) {
-                    if (!this.checkIfSubtype(tree.pos, funtype.args[i], ta[i], " Invalid argument type")) {
-                        tree.typ = Type.BAD;
-                    }
-                }
-                if (tree.typ == null) {
-                    tree.typ = tt;
-                }
-            } else {
-                error(tree.pos, " Invalid arguments length in function call.");
-                tree.typ = Type.BAD;
-            }
-        } else {
-            error(tree.pos, " Invalid function call.");
-            tree.typ = Type.BAD;
+        tree.typ = call(tree.pos, tf, ta);
+    }
+
+    /**
+     * checks the types of the arguments of a call, returns its type.
+     */
+    private Type call(int pos, Type tf, Type[] ta) {
+        if (!(tf instanceof Type.FunType)) {
+            error(pos, " Invalid function call.");
+            return Type.BAD;
+        }
+        Type.FunType funtype = (Type.FunType) tf;
+        if (funtype.args.length != ta.length) {
+            error(pos, " Invalid arguments length in function call.");
+            return Type.BAD;
         }
+        Type type = funtype.type;
+        for (int i = 0; i < ta.length; i++) {
+            if (!this.checkIfSubtype(pos, funtype.args[i], ta[i], " Invalid argument type")) type = Type.BAD;
+        }
+        return type;
     }
 
     /**
@@ -413,7 +581,262 @@ public class Analyzer implements Tree.Visitor, Tokens, Kinds {
     public void caseBlock(Block tree) {
         Scope scopeBlock = new Scope(scope);
         analyze(tree.statements, scopeBlock);
-        Type t1 = analyze(tree.expression, scopeBlock);
+        Type t1 = analyzeIn(tree.expression, scopeBlock);
         tree.typ = t1;
     }
+
+    // nodes of an arena, analyzed by index as their trees are
+
+    /**
+     * Analyzes the node of the arena in scope, without building its tree:
+     * the types and the symbols are stored in the arena. The declarations
+     * are checked sequentially.
+     */
+    public Type analyze(TreeArena arena, int node, Scope scope) {
+        Events.Phase event = Events.phase("Analyzer.analyze");
+        TreeArena backup = this.arena;
+        this.arena = arena;
+        try {
+            return analyzeIn(node, scope);
+        } finally {
+            this.arena = backup;
+            if (event != null && event.shouldCommit()) {
+                event.source = global.source;
+                event.nodes = arena.nodes(node);
+                event.commit();
+            }
+        }
+    }
+
+    private Type analyzeIn(int node, Scope scope) {
+        Scope backup = this.scope;
+        this.scope = scope;
+        Type type = analyze(node);
+        this.scope = backup;
+        return type;
+    }
+
+    private Type analyze(int node) {
+        if (arena.type(node) != null) throw new Error("type already assigned.");
+        arena.apply(node, this);
+        Type type = arena.type(node);
+        if (type == null) throw new Error("type not assigned.");
+        return type;
+    }
+
+    /**
+     * analyzes the node and its next siblings in scope.
+     */
+    private Type[] analyzeAll(int node, Scope scope) {
+        int count = 0;
+        for (int sibling = node; sibling != TreeArena.NONE; sibling = arena.next(sibling)) count++;
+        Type[] types = new Type[count];
+        for (int i = 0; i < count; i++, node = arena.next(node))
+            types[i] = analyzeIn(node, scope);
+        return types;
+    }
+
+    public void caseBad(int node) {
+        arena.setType(node, Type.BAD);
+    }
+
+    public void caseProgram(int node) {
+        Scope scope = new Scope(this.scope);
+        int expr = arena.first(node);
+        analyzeAll(arena.next(expr), scope);
+        analyzeIn(expr, scope);
+        arena.setType(node, Type.NONE);
+    }
+
+    public void caseFunDecl(int node) {
+        int result = arena.first(node);
+        int body = arena.next(result);
+        Scope scopeArgs = new Scope(scope);
+        Type[] ta = analyzeAll(arena.next(body), scopeArgs);
+        Type tt = analyze(result);
+        Symbol sym = new Symbol(arena.position(node), arena.name(node), FUNCTION, global.types.function(ta, tt));
+        arena.setSymbol(node, sym);
+        scope.enter(sym);
+        Type te = analyzeIn(body, scopeArgs);
+        this.checkIfSubtype(arena.position(node), tt, te, "Invalid Type.");
+        arena.setType(node, Type.NONE);
+    }
+
+    public void caseVarDecl(int node) {
+        int type = arena.first(node);
+        Type tt = analyze(type);
+        Type te = analyze(arena.next(type));
+        checkIfSubtype(arena.position(node), tt, te, " Incompatible types.");
+        Symbol sym = new Symbol(arena.position(node), arena.name(node), VARIABLE, tt);
+        arena.setSymbol(node, sym);
+        scope.enter(sym);
+        arena.setType(node, Type.NONE);
+    }
+
+    public void caseFormal(int node) {
+        Type tt = analyze(arena.first(node));
+        Symbol sym = new Symbol(arena.position(node), arena.name(node), VARIABLE, tt);
+        arena.setSymbol(node, sym);
+        scope.enter(sym);
+        arena.setType(node, tt);
+    }
+
+    public void caseUnitType(int node) {
+        arena.setType(node, Type.UNIT);
+    }
+
+    public void caseIntType(int node) {
+        arena.setType(node, Type.INT);
+    }
+
+    public void caseListType(int node) {
+        Type tt = analyze(arena.first(node));
+        arena.setType(node, global.types.list(tt));
+    }
+
+    public void caseFunType(int node) {
+        int result = arena.first(node);
+        Type[] ts = analyzeAll(arena.next(result), scope);
+        Type tt = analyze(result);
+        arena.setType(node, global.types.function(ts, tt));
+    }
+
+    public void caseExec(int node) {
+        analyze(arena.first(node));
+        arena.setType(node, Type.NONE);
+    }
+
+    public void caseWhile(int node) {
+        int cond = arena.first(node);
+        Type tc = analyze(cond);
+        this.checkIfEqual(arena.position(node), Type.INT, tc, " Incompatible types.");
+        analyze(arena.next(cond));
+        arena.setType(node, Type.NONE);
+    }
+
+    public void caseIf(int node) {
+        int cond = arena.first(node);
+        int thenp = arena.next(cond);
+        Type tc = analyze(cond);
+        Type t1 = analyze(thenp);
+        Type t2 = analyze(arena.next(thenp));
+        arena.setType(node, conditional(arena.position(node), tc, t1, t2));
+    }
+
+    public void caseAssign(int node) {
+        int pos = arena.position(node);
+        Symbol sym = lookup(arena.name(node));
+        if (sym == null) {
+            error(pos, arena.name(node) + " not defined.");
+        } else if (sym.isVariable()) {
+            arena.setSymbol(node, sym);
+            sym.assigned = true;
+            Type t1 = analyze(arena.first(node));
+            this.checkIfSubtype(pos, sym.type, t1, " Invalid affectation type");
+        } else {
+            error(pos, "Invalid affectation.");
+        }
+        arena.setType(node, Type.UNIT);
+    }
+
+    public void caseIdent(int node) {
+        Symbol sym = lookup(arena.name(node));
+        if (sym == null) {
+            error(arena.position(node), arena.name(node) + " not defined.");
+            arena.setType(node, Type.BAD);
+        } else {
+            arena.setSymbol(node, sym);
+            arena.setType(node, sym.type);
+        }
+    }
+
+    public void caseUnitLit(int node) {
+        arena.setType(node, Type.UNIT);
+    }
+
+    public void caseIntLit(int node) {
+        arena.setType(node, Type.INT);
+    }
+
+    public void caseNilLit(int node) {
+        arena.setType(node, global.types.NIL);
+    }
+
+    public void caseOperation(int node) {
+        int left = arena.first(node);
+        int right = arena.next(left);
+        Type t1;
+        Type t2;
+        Type type = null;
+        switch (arena.value(node)) {
+            case EQU:
+            case NOTEQ:
+            case LESS:
+            case LESSOREQ:
+            case GREATER:
+            case GREATEROREQ:
+            case PLUS:
+            case MINUS:
+            case MUL:
+            case DIV:
+            case MOD:
+                t1 = analyze(left);
+                this.checkIfEqual(arena.position(left), Type.INT, t1, "Invalid operand type");
+                t2 = analyze(right);
+                this.checkIfEqual(arena.position(right), Type.INT, t2, "Invalid operand type");
+                type = Type.INT;
+                break;
+            case CONS:
+                t1 = analyze(left);
+                t2 = analyze(right);
+                Type.ListType t = global.types.list(t1);
+                if (!Type.areComparable(t, t2)) {
+                    error(arena.position(node), "Incompatible list types");
+                    type = Type.BAD;
+                } else {
+                    type = Type.max(t, t2);
+                }
+                break;
+            case HEAD:
+                t1 = analyze(left);
+                if (t1 instanceof Type.ListType) {
+                    type = ((Type.ListType) t1).type;
+                } else {
+                    error(arena.position(left), " Invalid operand type.");
+                    type = Type.BAD;
+                }
+                break;
+            case TAIL:
+                t1 = analyze(left);
+                if (t1 instanceof Type.ListType) {
+                    type = t1;
+                } else {
+                    error(arena.position(left), " Invalid operand type.");
+                    type = Type.BAD;
+                }
+                break;
+            case ISEMPTY:
+                t1 = analyze(left);
+                if (!(t1 instanceof Type.ListType)) {
+                    error(arena.position(left), " Invalid operand type.");
+                }
+                type = Type.INT;
+                break;
+        }
+        arena.setType(node, type);
+    }
+
+    public void caseFunCall(int node) {
+        int expression = arena.first(node);
+        Type tf = analyze(expression);
+        Type[] ta = analyzeAll(arena.next(expression), scope);
+        arena.setType(node, call(arena.position(node), tf, ta));
+    }
+
+    public void caseBlock(int node) {
+        int expression = arena.first(node);
+        Scope scopeBlock = new Scope(scope);
+        analyzeAll(arena.next(expression), scopeBlock);
+        arena.setType(node, analyzeIn(expression, scopeBlock));
+    }
 }
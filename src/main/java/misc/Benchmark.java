@@ -0,0 +1,141 @@
+package misc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Base class of the benchmarks. Runs the measures on the given source, or on
+ * a generated program of about -size megabytes when no source is given.
+ * options :
+ * -runs <n>  Number of measured runs, the best one is reported
+ * -size <n>  Size in MB of the generated program
+ */
+abstract class Benchmark extends AbstractMain {
+
+    public int runs = 5;
+
+    public int size = 8;
+
+    public abstract void measure(Global global, PrintWriter out);
+
+    public void run(Global global) {
+        if (source == null) source = generate(global, size * (1L << 20));
+        super.run(global);
+    }
+
+    public void run(Global global, Source in, PrintWriter out) {
+        global.close(in);
+        measure(global, out);
+    }
+
+    /**
+     * runs the task once to warm up, then returns the best time in seconds.
+     */
+    public double time(Runnable task) {
+        task.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e9;
+    }
+
+    public void report(PrintWriter out, String label, double value, String unit) {
+        out.printf("%-32s %12.2f %s%n", label, value, unit);
+    }
+
+    /**
+     * returns true if both buffers hold the same tokens.
+     */
+    public static boolean same(TokenBuffer expected, TokenBuffer found) {
+        if (expected.size() != found.size()) return false;
+        for (int i = 0; i < expected.size(); i++)
+            if (!expected.same(i, found, i, 0)) return false;
+        return true;
+    }
+
+    /**
+     * writes a program of at least the given size in a temporary file.
+     */
+    public String generate(Global global, long bytes) {
+        try {
+            File file = File.createTempFile("bench", ".misc");
+            file.deleteOnExit();
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.ISO_8859_1)) {
+                StringBuilder text = new StringBuilder();
+                long written = 0;
+                int n = 0;
+                while (written < bytes) {
+                    text.setLength(0);
+                    declaration(text, n++);
+                    out.append(text);
+                    written += text.length();
+                }
+                text.setLength(0);
+                main(text, n);
+                out.append(text);
+            }
+            return file.getPath();
+        } catch (IOException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    /**
+     * returns the tokens of a program of n declarations.
+     */
+    public TokenBuffer program(Global global, int n) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < n; i++) declaration(text, i);
+        main(text, n);
+        ByteBuffer input = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.ISO_8859_1));
+        return new TokenBuffer().scan(new Scanner(global, new Source.Buffer(input)));
+    }
+
+    /**
+     * appends the declaration number i of generated programs.
+     */
+    public void declaration(StringBuilder out, int i) {
+        int previous = i == 0 ? 0 : i - 1;
+        out.append("// declaration ").append(i).append('\n');
+        out.append("def f").append(i).append(" (x: Int, l: List[Int]): Int = {\n");
+        out.append("  var y: Int = x * 2 + ").append(i % 100).append(";\n");
+        out.append("  if (isEmpty (l) | y < 0) y else f").append(previous)
+                .append(" (y - 1, tail (l))\n");
+        out.append("};\n");
+    }
+
+    /**
+     * appends the main expression of generated programs with n declarations.
+     */
+    public void main(StringBuilder out, int n) {
+        out.append("printInt (f").append(n - 1).append(" (3, [1, 2, 3]))\n");
+    }
+
+    public int handleOption(String[] args, int i) {
+        if (args[i].equals("-runs") && i + 1 < args.length) {
+            runs = Integer.parseInt(args[i + 1]);
+            return 2;
+        } else if (args[i].equals("-size") && i + 1 < args.length) {
+            size = Integer.parseInt(args[i + 1]);
+            return 2;
+        } else {
+            return super.handleOption(args, i);
+        }
+    }
+
+    public void printHelp(PrintStream out) {
+        super.printHelp(out);
+        out.println("  -runs <n> Number of measured runs");
+        out.println("  -size <n> Size in MB of the generated program");
+    }
+}
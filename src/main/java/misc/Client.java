@@ -0,0 +1,105 @@
+package misc;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * usage: java misc.Client <options> [source [objet]]
+ * options :
+ * -port <n> Port of the daemon, Daemon.PORT by default
+ * Same as misc.Main, but compiles with misc.Daemon, or in this JVM when no
+ * daemon is listening or with -stream, -arena or -stats.
+ */
+public class Client extends Main {
+
+    public int port = Daemon.PORT;
+
+    public void run(Global global, Source in, PrintWriter out) {
+        if (stream || arena || stats != null) {
+            super.run(global, in, out);
+            return;
+        }
+        byte[] text = read(global, in);
+        int flags = (global.parallel ? Daemon.PARALLEL : 0) | (global.pipeline ? Daemon.PIPELINE : 0) |
+                (optimize ? 0 : Daemon.NOOPT);
+        Diagnostics diagnostics;
+        try {
+            diagnostics = request(port, global.source, flags, text, out);
+        } catch (ConnectException exception) {
+            super.run(global, new Source.Buffer(ByteBuffer.wrap(text)), out);
+            return;
+        } catch (IOException exception) {
+            throw global.fatal(exception);
+        }
+        diagnostics.replay(global);
+    }
+
+    /**
+     * Sends the source to the daemon listening on port, writes the code to
+     * out and returns the errors.
+     */
+    public static Diagnostics request(int port, String source, int flags, byte[] text, Writer out)
+            throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream request = new DataOutputStream(socket.getOutputStream());
+            request.writeUTF(source == null ? "-" : source);
+            request.writeInt(flags);
+            request.writeInt(text.length);
+            request.write(text);
+            request.flush();
+
+            DataInputStream response = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Diagnostics diagnostics = new Diagnostics();
+            for (int i = response.readInt(); i > 0; i--) {
+                int position = response.readInt();
+                diagnostics.add(position, response.readUTF());
+            }
+            if (response.readByte() != 0) {
+                byte[] buffer = new byte[1 << 16];
+                for (int n; (n = response.read(buffer)) > 0; )
+                    out.write(new String(buffer, 0, n, StandardCharsets.ISO_8859_1));
+            }
+            out.flush();
+            return diagnostics;
+        }
+    }
+
+    /**
+     * returns the bytes of the source.
+     */
+    private static byte[] read(Global global, Source in) {
+        try {
+            return in.readAll();
+        } catch (IOException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    public int handleOption(String[] args, int i) {
+        if (args[i].equals("-port") && i + 1 < args.length) {
+            port = Integer.parseInt(args[i + 1]);
+            return 2;
+        } else {
+            return super.handleOption(args, i);
+        }
+    }
+
+    public void printHelp(PrintStream out) {
+        super.printHelp(out);
+        out.println("  -port <n> Port of the daemon");
+    }
+
+    public static void main(String[] args) {
+        new Client().run(args);
+    }
+}
@@ -0,0 +1,229 @@
+package misc;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Objects of the compiled sources in a directory, named by the SHA-256 of
+ * the version of the compiler, of the options and of the bytes of the
+ * source. The least recently used objects are removed once the directory
+ * holds more than size bytes; the time of last use is the modification
+ * time of the file, so that it is kept from a run to the next. Only the
+ * objects of successful compilations are kept. Several threads may use a
+ * cache at once. The temporary files left by a writer which has crashed
+ * are removed when the cache is opened. There is no cache if the version
+ * of the compiler is unknown.
+ */
+public class CompilationCache {
+
+    public static final long SIZE = 64L << 20;
+
+    public static final String SUFFIX = "." + Main.RISC;
+
+    /**
+     * milliseconds after which a temporary file is left by a crashed writer
+     */
+    public static final long STALE = 60000;
+
+    public final Path directory;
+
+    public final long size;
+
+    /**
+     * size of each object by key, the least recently used first
+     */
+    private final LinkedHashMap<String, Long> objects = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long total = 0;
+
+    private int hits = 0;
+
+    private int misses = 0;
+
+    private int evictions = 0;
+
+    private static String version;
+
+    private static boolean versioned = false;
+
+    public CompilationCache(Path directory, long size) throws IOException {
+        if (version() == null) throw new IOException("unknown version of the compiler");
+        this.directory = directory;
+        this.size = size;
+        Files.createDirectories(directory);
+        long stale = System.currentTimeMillis() - STALE;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.tmp")) {
+            for (Path file : stream) if (modified(file).toMillis() < stale) Files.deleteIfExists(file);
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) files.add(file);
+        }
+        files.sort((a, b) -> modified(a).compareTo(modified(b)));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long length = file.toFile().length();
+            objects.put(name.substring(0, name.length() - SUFFIX.length()), length);
+            total += length;
+        }
+        for (String key : evict(null)) Files.deleteIfExists(file(key));
+    }
+
+    /**
+     * returns the key of the source compiled with the options.
+     */
+    public static String key(byte[] source, String options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(version().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(options.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source);
+            return hex(digest.digest());
+        } catch (NoSuchAlgorithmException exception) {
+            throw new Error(exception);
+        }
+    }
+
+    /**
+     * Copies the object of the key to the file, returns false if there is
+     * none.
+     */
+    public boolean get(String key, Path object) {
+        Path file = file(key);
+        synchronized (this) {
+            if (objects.get(key) == null) {
+                misses++;
+                return false;
+            }
+        }
+        try {
+            Files.copy(file, object, StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException exception) {
+            // removed by another compiler
+            synchronized (this) {
+                Long length = objects.remove(key);
+                if (length != null) total -= length;
+                misses++;
+            }
+            return false;
+        }
+        synchronized (this) {
+            hits++;
+        }
+        return true;
+    }
+
+    /**
+     * Keeps a copy of the object under the key, then removes the least
+     * recently used objects above the size of the cache.
+     */
+    public void put(String key, Path object) throws IOException {
+        Path temporary = Files.createTempFile(directory, key, ".tmp");
+        try {
+            Files.copy(object, temporary, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temporary, file(key), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        long length = file(key).toFile().length();
+        List<String> evicted;
+        synchronized (this) {
+            Long previous = objects.put(key, length);
+            total += length - (previous == null ? 0 : previous);
+            evicted = evict(key);
+        }
+        for (String name : evicted) Files.deleteIfExists(file(name));
+    }
+
+    /**
+     * forgets the least recently used objects other than keep until the cache fits
+     * in its size, returns their keys.
+     */
+    private synchronized List<String> evict(String keep) {
+        List<String> evicted = new ArrayList<>();
+        for (Iterator<Map.Entry<String, Long>> i = objects.entrySet().iterator(); total > size && i.hasNext(); ) {
+            Map.Entry<String, Long> eldest = i.next();
+            if (eldest.getKey().equals(keep)) continue;
+            evicted.add(eldest.getKey());
+            total -= eldest.getValue();
+            evictions++;
+            i.remove();
+        }
+        return evicted;
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    public synchronized void report(PrintStream out) {
+        out.printf("cache: %d hit(s), %d miss(es), %d eviction(s), %d object(s) of %d KB in %s%n",
+                hits, misses, evictions, objects.size(), total >> 10, directory);
+    }
+
+    /**
+     * returns a digest of the names, sizes and times of the classes of the
+     * compiler, or of its jar, null if it cannot be computed.
+     */
+    public static synchronized String version() {
+        if (versioned) return version;
+        versioned = true;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            Path location = Paths.get(CompilationCache.class.getProtectionDomain()
+                    .getCodeSource().getLocation().toURI());
+            List<Path> files = new ArrayList<>();
+            if (Files.isDirectory(location)) {
+                try (Stream<Path> paths = Files.walk(location.resolve("misc"))) {
+                    paths.filter(path -> path.toString().endsWith(".class")).sorted().forEach(files::add);
+                }
+            } else {
+                files.add(location);
+            }
+            for (Path file : files) {
+                digest.update(location.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                digest.update(String.valueOf(file.toFile().length()).getBytes(StandardCharsets.UTF_8));
+                digest.update(String.valueOf(file.toFile().lastModified()).getBytes(StandardCharsets.UTF_8));
+            }
+            version = hex(digest.digest());
+        } catch (IOException | URISyntaxException | NoSuchAlgorithmException | RuntimeException exception) {
+            // the objects of another compiler would be taken for its own
+            version = null;
+        }
+        return version;
+    }
+
+    private static FileTime modified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException exception) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder text = new StringBuilder();
+        for (byte b : bytes) text.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+        return text.toString();
+    }
+}
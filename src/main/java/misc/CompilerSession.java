@@ -0,0 +1,162 @@
+package misc;
+
+import misc.risc.Code;
+import misc.risc.Generator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Compiles sources in memory. Each compilation has its own Global, its
+ * errors are returned with the code instead of being printed. A session
+ * holds only options, it may compile on several threads at once.
+ */
+public class CompilerSession {
+
+    public final boolean parallel;
+
+    public final boolean pipeline;
+
+    public final boolean optimize;
+
+    public CompilerSession() {
+        this(false, false);
+    }
+
+    /**
+     * parallel: checks the bodies and scans large sources on all cores,
+     * pipeline: scans and parses on two threads.
+     */
+    public CompilerSession(boolean parallel, boolean pipeline) {
+        this(parallel, pipeline, true);
+    }
+
+    /**
+     * optimize: simplifies the analyzed trees with the Optimizer.
+     */
+    public CompilerSession(boolean parallel, boolean pipeline, boolean optimize) {
+        this.parallel = parallel;
+        this.pipeline = pipeline;
+        this.optimize = optimize;
+    }
+
+    /**
+     * Result of a compilation: its errors, and its code if there is none.
+     */
+    public static class Result {
+        public final String source;
+        public final Diagnostics diagnostics;
+        public final Code code;
+
+        Result(String source, Diagnostics diagnostics, Code code) {
+            this.source = source;
+            this.diagnostics = diagnostics;
+            this.code = code;
+        }
+
+        public boolean succeeded() {
+            return code != null;
+        }
+
+        /**
+         * returns the assembly of the code, null if the compilation failed.
+         */
+        public String assembly() {
+            if (code == null) return null;
+            StringWriter text = new StringWriter();
+            PrintWriter out = new PrintWriter(text);
+            code.write(out);
+            out.flush();
+            return text.toString();
+        }
+
+        /**
+         * returns the errors as the compiler prints them.
+         */
+        public String errors() {
+            StringWriter text = new StringWriter();
+            PrintWriter out = new PrintWriter(text);
+            diagnostics.write(out, source);
+            out.flush();
+            return text.toString();
+        }
+    }
+
+    /**
+     * returns the result of a compilation of source which failed with
+     * message.
+     */
+    public static Result failure(String source, String message) {
+        Diagnostics diagnostics = new Diagnostics();
+        diagnostics.add(Position.UNDEFINED, message);
+        return new Result(source, diagnostics, null);
+    }
+
+    /**
+     * returns true if exception is a failure of the compiler itself: an
+     * Error it throws on an inconsistency, or a RuntimeException. It is
+     * reported as an error of the source. The other errors, such as the
+     * errors of the virtual machine, are not caught.
+     */
+    static boolean isInternal(Throwable exception) {
+        return exception instanceof RuntimeException || exception.getClass() == Error.class;
+    }
+
+    /**
+     * returns the message of an internal failure of the compiler.
+     */
+    static String message(Throwable exception) {
+        String message = exception.getMessage();
+        if (message == null) message = "Fatal error" + "(" + exception.getClass() + ")";
+        return message;
+    }
+
+    public Result compile(String text) {
+        return compile(null, ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    public Result compile(Path path) {
+        Diagnostics diagnostics = new Diagnostics();
+        Source in;
+        try {
+            in = Source.map(path);
+        } catch (IOException exception) {
+            diagnostics.add(Position.UNDEFINED, "Cannot open file " + path);
+            return new Result(path.toString(), diagnostics, null);
+        }
+        return compile(path.toString(), in, diagnostics);
+    }
+
+    /**
+     * compiles the bytes of input from its position, source names them in errors.
+     */
+    public Result compile(String source, ByteBuffer input) {
+        return compile(source, new Source.Buffer(input), new Diagnostics());
+    }
+
+    private Result compile(String source, Source in, Diagnostics diagnostics) {
+        Error abort = new Error();
+        Global global = new Global(source, false, parallel, pipeline, abort, diagnostics);
+        Code code = null;
+        try {
+            Tree tree = new Parser(global, in).parse();
+            Analyzer analyzer = new Analyzer(global);
+            Scope scope = analyzer.createGlobalScope();
+            analyzer.analyze(tree, scope);
+            if (global.errors() == 0 && optimize) tree = new Optimizer().optimize(tree);
+            if (global.errors() == 0) code = new Generator(global).generate(scope, tree);
+            if (global.errors() > 0) code = null;
+        } catch (RuntimeException | Error exception) {
+            if (exception != abort && !isInternal(exception)) throw exception;
+            if (exception != abort) diagnostics.add(Position.UNDEFINED, message(exception));
+            code = null;
+        } finally {
+            global.close(in);
+        }
+        return new Result(source, diagnostics, code);
+    }
+}
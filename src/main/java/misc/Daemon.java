@@ -0,0 +1,184 @@
+package misc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * usage: java misc.Daemon <options>
+ * options :
+ * -port <n> Port to listen on, PORT by default
+ * Compiles the sources sent by misc.Client on localhost, each on its own
+ * thread (a virtual thread when the JVM has them), with a warm JVM.
+ * Protocol, one compilation per connection:
+ * request  : source name (UTF), flags (int, PARALLEL | PIPELINE | NOOPT), length
+ * (int, at most MAX_LENGTH) and bytes of the source, within TIMEOUT.
+ * response : number of errors (int), position (int) and message (UTF) of
+ * each, 1 if the code follows, 0 otherwise (byte), then the assembly of the
+ * code until the end of the stream. A request too long, or failing in the
+ * compiler, is answered with a single error. An error of the virtual
+ * machine closes the daemon.
+ */
+public class Daemon extends AbstractMain {
+
+    public static final int PORT = 7431;
+
+    public static final int PARALLEL = 1;
+    public static final int PIPELINE = 2;
+    public static final int NOOPT = 4;
+
+    /**
+     * maximum length in bytes of a source
+     */
+    public static final int MAX_LENGTH = 1 << 26;
+
+    /**
+     * milliseconds a connection may wait for its request
+     */
+    public static final int TIMEOUT = 10000;
+
+    public int port = PORT;
+
+    private ServerSocket server;
+
+    public void run(Global global) {
+        listen(global);
+        System.err.println("listening on " + server.getLocalSocketAddress());
+        serve(global);
+    }
+
+    public void run(Global global, Source in, PrintWriter out) {
+        throw new Error("the daemon has no source");
+    }
+
+    /**
+     * opens the server socket, returns its port.
+     */
+    public int listen(Global global) {
+        try {
+            server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+            return server.getLocalPort();
+        } catch (IOException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    /**
+     * accepts connections until the server socket is closed.
+     */
+    public void serve(Global global) {
+        ExecutorService threads = threads();
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                threads.execute(() -> handle(socket));
+            }
+        } catch (IOException exception) {
+            if (!server.isClosed()) throw global.fatal(exception);
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+    }
+
+    /**
+     * compiles the request of a connection.
+     */
+    private void handle(Socket socket) {
+        try (Socket connection = socket) {
+            connection.setSoTimeout(TIMEOUT);
+            DataInputStream in = new DataInputStream(connection.getInputStream());
+            String source = in.readUTF();
+            int flags = in.readInt();
+            int length = in.readInt();
+            CompilerSession.Result result;
+            if (length < 0 || length > MAX_LENGTH) {
+                result = CompilerSession.failure(source, "Invalid source length " + length);
+            } else {
+                byte[] text = new byte[length];
+                in.readFully(text);
+                CompilerSession session = new CompilerSession((flags & PARALLEL) != 0, (flags & PIPELINE) != 0,
+                        (flags & NOOPT) == 0);
+                result = session.compile(source, ByteBuffer.wrap(text));
+            }
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            out.writeInt(result.diagnostics.size());
+            for (int i = 0; i < result.diagnostics.size(); i++) {
+                out.writeInt(result.diagnostics.position(i));
+                out.writeUTF(result.diagnostics.message(i));
+            }
+            out.writeByte(result.succeeded() ? 1 : 0);
+            if (result.succeeded()) {
+                PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.ISO_8859_1));
+                result.code.write(writer);
+                writer.flush();
+            }
+            out.flush();
+        } catch (IOException exception) {
+            System.err.println("error : " + exception);
+        } catch (VirtualMachineError error) {
+            // the heap or the stack may be damaged, no other request is accepted
+            try {
+                close();
+            } catch (IOException exception) {
+                System.err.println("error : " + exception);
+            }
+            throw error;
+        }
+    }
+
+    /**
+     * returns an executor starting a virtual thread per task if the JVM has
+     * them, a thread per task otherwise.
+     */
+    private static ExecutorService threads() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException exception) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "compile");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public int handleOption(String[] args, int i) {
+        if (args[i].equals("-port") && i + 1 < args.length) {
+            port = Integer.parseInt(args[i + 1]);
+            return 2;
+        } else {
+            return super.handleOption(args, i);
+        }
+    }
+
+    public void printUsage(PrintStream out) {
+        out.println("usage: java " + getClass().getName() + " <options>");
+    }
+
+    public void printHelp(PrintStream out) {
+        super.printHelp(out);
+        out.println("  -port <n> Port to listen on");
+    }
+
+    public static void main(String[] args) {
+        // for the recordings started on the running daemon
+        Events.enable();
+        new Daemon().run(args);
+    }
+}
@@ -0,0 +1,109 @@
+package misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * usage: java misc.DaemonBenchmark <options> [directory [output]]
+ * Measures the latency of the compilation of each program of the directory
+ * (misc_programs by default): by misc.Main in a new JVM, by misc.Client in a
+ * new JVM with a warm daemon, and of the request to the daemon alone.
+ */
+public class DaemonBenchmark extends Benchmark {
+
+    public DaemonBenchmark() {
+        runs = 2;
+    }
+
+    /**
+     * compiles the programs of the directory, nothing is generated.
+     */
+    public void run(Global global) {
+        if (source == null) source = "misc_programs";
+        OutputStream out = global.openOutput(object);
+        PrintWriter writer = new PrintWriter(out, true);
+        measure(global, writer);
+        writer.close();
+        global.close(out);
+    }
+
+    public void measure(Global global, PrintWriter out) {
+        File[] files = new File(source).listFiles((directory, name) -> name.endsWith(".misc"));
+        if (files == null || files.length == 0) throw global.fatal("no program in " + source);
+        Arrays.sort(files);
+        out.printf("%s: %d programs%n", source, files.length);
+
+        Daemon daemon = new Daemon();
+        daemon.port = 0;
+        int port = daemon.listen(global);
+        Thread thread = new Thread(() -> daemon.serve(global), "daemon");
+        thread.setDaemon(true);
+        thread.start();
+
+        try {
+            File object = File.createTempFile("daemon", ".risc");
+            object.deleteOnExit();
+            double cold = time(() -> {
+                for (File file : files) start(global, Main.class, file, object);
+            }) / files.length;
+            report(out, "misc.Main", cold * 1e3, "ms/program");
+            double client = time(() -> {
+                for (File file : files) start(global, Client.class, file, object, "-port", "" + port);
+            }) / files.length;
+            report(out, "misc.Client and daemon", client * 1e3, "ms/program");
+            report(out, "  speedup", cold / client, "x");
+
+            List<byte[]> texts = new ArrayList<>();
+            for (File file : files) texts.add(Files.readAllBytes(file.toPath()));
+            double request = time(() -> {
+                for (int i = 0; i < files.length; i++) request(global, port, files[i], texts.get(i));
+            }) / files.length;
+            report(out, "request to the daemon", request * 1e3, "ms/program");
+            report(out, "  speedup", cold / request, "x");
+            daemon.close();
+        } catch (IOException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    /**
+     * compiles the file with the main class in a new JVM.
+     */
+    private void start(Global global, Class<?> main, File file, File object, String... options) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(main.getName());
+        command.addAll(Arrays.asList(options));
+        command.add(file.getPath());
+        command.add(object.getPath());
+        try {
+            Process process = new ProcessBuilder(command).inheritIO().start();
+            if (process.waitFor() != 0) throw global.fatal("compilation of " + file + " failed");
+        } catch (IOException | InterruptedException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    private void request(Global global, int port, File file, byte[] text) {
+        try {
+            Diagnostics diagnostics = Client.request(port, file.getPath(), 0, text, new StringWriter());
+            if (diagnostics.size() > 0) throw global.fatal("compilation of " + file + " failed");
+        } catch (IOException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    public static void main(String[] args) {
+        new DaemonBenchmark().run(args);
+    }
+}
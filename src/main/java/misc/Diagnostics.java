@@ -0,0 +1,69 @@
+package misc;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Errors, in the order they have been reported: the errors of a compilation
+ * (see CompilerSession), or the errors recorded by a thread to be reported
+ * later (see Global.record).
+ */
+public class Diagnostics {
+
+    /**
+     * null until an error is recorded
+     */
+    private List<Integer> positions;
+
+    private List<String> messages;
+
+    public void add(int position, String message) {
+        if (messages == null) {
+            positions = new ArrayList<>();
+            messages = new ArrayList<>();
+        }
+        positions.add(position);
+        messages.add(message);
+    }
+
+    public int size() {
+        return messages == null ? 0 : messages.size();
+    }
+
+    public int position(int i) {
+        return positions.get(i);
+    }
+
+    public String message(int i) {
+        return messages.get(i);
+    }
+
+    /**
+     * moves the positions of the errors the given number of lines down.
+     */
+    public void shift(int lines) {
+        for (int i = 0; i < size(); i++)
+            positions.set(i, Position.shift(positions.get(i), lines));
+    }
+
+    /**
+     * writes the errors as the compiler prints them, prefixed by the source
+     * name if it is not null.
+     */
+    public void write(PrintWriter out, String source) {
+        for (int i = 0; i < size(); i++) {
+            if (source != null) out.print(source + ":");
+            out.println(Position.line(position(i)) + ":" + Position.column(position(i)) +
+                    ": " + message(i));
+        }
+    }
+
+    /**
+     * reports the recorded errors to global.
+     */
+    public void replay(Global global) {
+        for (int i = 0; i < size(); i++)
+            global.error(positions.get(i), messages.get(i));
+    }
+}
@@ -0,0 +1,129 @@
+package misc;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the compiler, recorded with the usual
+ * JFR tools, e.g. java -XX:StartFlightRecording=filename=misc.jfr. An event
+ * is created and begun by phase() or declaration() before the work it
+ * measures, its fields are only computed if it is to be committed.
+ * The events are only created once enabled, otherwise they are null and
+ * the classes of JFR, a few hundred with those they load, are never
+ * loaded: that would double the time a short compilation takes.
+ * With -stream, each declaration has its Analyzer.analyze phase and the
+ * code is written by a Code.flush phase after each one; there is no
+ * Parser.parse nor Generator.generate phase.
+ */
+public final class Events {
+
+    /**
+     * number of nodes from which a declaration has its own event
+     */
+    public static final int LARGE = 200;
+
+    /**
+     * true if the events are created: if the recorder has been started
+     * with the JVM, with -Dmisc.jfr=true for a recording started later,
+     * e.g. by jcmd JFR.start, or once enable() is called
+     */
+    private static volatile boolean enabled = Boolean.getBoolean("misc.jfr") ? isAvailable() : isInitialized();
+
+    private Events() {
+    }
+
+    /**
+     * creates the events from now on, so that a recording started later
+     * records them. Called by the daemon, whose start-up time does not
+     * matter.
+     */
+    public static void enable() {
+        enabled = isAvailable();
+    }
+
+    private static boolean isAvailable() {
+        try {
+            return FlightRecorder.isAvailable();
+        } catch (LinkageError error) {
+            // no jdk.jfr module
+            return false;
+        }
+    }
+
+    private static boolean isInitialized() {
+        try {
+            return FlightRecorder.isInitialized();
+        } catch (LinkageError error) {
+            return false;
+        }
+    }
+
+    /**
+     * returns the event of the phase begun, null if the events are not
+     * enabled.
+     */
+    public static Phase phase(String phase) {
+        if (!enabled) return null;
+        Phase event = new Phase(phase);
+        event.begin();
+        return event;
+    }
+
+    /**
+     * returns the event of a declaration begun, null if the events are not
+     * enabled.
+     */
+    public static Declaration declaration() {
+        if (!enabled) return null;
+        Declaration event = new Declaration();
+        event.begin();
+        return event;
+    }
+
+    @Name("misc.Phase")
+    @Label("Compiler Phase")
+    @Category({"misc", "Compiler"})
+    @Description("Parser.parse, Analyzer.analyze, Generator.generate, Code.write or Code.flush (-stream)")
+    public static class Phase extends Event {
+        @Label("Phase")
+        public String phase;
+
+        @Label("Source")
+        public String source;
+
+        @Label("Nodes")
+        public int nodes;
+
+        @Label("Instructions")
+        public int instructions;
+
+        public Phase(String phase) {
+            this.phase = phase;
+        }
+    }
+
+    @Name("misc.Declaration")
+    @Label("Function Declaration")
+    @Category({"misc", "Compiler"})
+    @Description("Generation of a function declaration of at least LARGE nodes")
+    public static class Declaration extends Event {
+        @Label("Source")
+        public String source;
+
+        @Label("Function")
+        public String function;
+
+        @Label("Nodes")
+        public int nodes;
+
+        @Label("Symbols")
+        public int symbols;
+
+        @Label("Instructions")
+        public int instructions;
+    }
+}
@@ -0,0 +1,99 @@
+package misc;
+
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * usage: java misc.ExpressionBenchmark <options> [source]
+ * Measures the parser on expression heavy declarations, and the longest
+ * list literal and "::" chain parsed on a thread with a 1 MB stack.
+ */
+public class ExpressionBenchmark extends Benchmark {
+
+    /**
+     * stack size of the thread parsing long lists
+     */
+    public static final int STACK_SIZE = 1 << 20;
+
+    /**
+     * longest list tried
+     */
+    public static final int MAX_LENGTH = 1 << 22;
+
+    public void measure(Global global, PrintWriter out) {
+        Source in = global.openSource(source);
+        TokenBuffer tokens = new TokenBuffer().scan(new Scanner(global, in));
+        global.close(in);
+        int nodes = countNodes(global, tokens);
+        out.printf("%s: %d nodes%n", source, nodes);
+        report(out, "parse", nodes / time(() ->
+                new Parser(global, tokens).parse()) / 1e6, "Mnodes/s");
+        report(out, "longest list literal", longest(global, false), "elements");
+        report(out, "longest :: chain", longest(global, true), "elements");
+    }
+
+    private static int countNodes(Global global, TokenBuffer tokens) {
+        TreeArena arena = new TreeArena(global.names);
+        arena.add(new Parser(global, tokens).parse());
+        return arena.size();
+    }
+
+    /**
+     * returns the length of the longest list parsed, doubling the length until
+     * the parser fails or MAX_LENGTH is reached.
+     */
+    private int longest(Global global, boolean cons) {
+        int longest = 0;
+        for (int length = 1 << 10; length <= MAX_LENGTH; length *= 2) {
+            TokenBuffer tokens = list(global, length, cons);
+            boolean[] parsed = new boolean[1];
+            Thread thread = new Thread(null, () -> {
+                try {
+                    new Parser(global, tokens).parse();
+                    parsed[0] = true;
+                } catch (StackOverflowError error) {
+                    parsed[0] = false;
+                }
+            }, "parser", STACK_SIZE);
+            thread.start();
+            try {
+                thread.join();
+            } catch (InterruptedException exception) {
+                throw global.fatal(exception);
+            }
+            if (!parsed[0]) break;
+            longest = length;
+        }
+        return longest;
+    }
+
+    /**
+     * returns the tokens of a program made of a list of the given length.
+     */
+    private static TokenBuffer list(Global global, int length, boolean cons) {
+        StringBuilder text = new StringBuilder(length * 8);
+        text.append(cons ? "" : "[");
+        for (int i = 0; i < length; i++) {
+            if (i > 0) text.append(cons ? " :: " : ", ");
+            text.append(i);
+        }
+        text.append(cons ? " :: []" : "]");
+        ByteBuffer input = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.ISO_8859_1));
+        return new TokenBuffer().scan(new Scanner(global, new Source.Buffer(input)));
+    }
+
+    public void declaration(StringBuilder out, int i) {
+        int previous = i == 0 ? 0 : i - 1;
+        out.append("def f").append(i).append(" (x: Int, l: List[Int]): Int = {\n");
+        out.append("  var y: Int = x * 2 + ").append(i % 100).append(" - x / 3 * (x + 1) % 7;\n");
+        out.append("  var m: List[Int] = y :: x + 1 :: [x, y, x * y, -x, 1, 2, 3];\n");
+        out.append("  if (y < 0 | x == 1 & !isEmpty (m)) head (m) + y else f").append(previous)
+                .append(" (y - 1, tail (m))\n");
+        out.append("};\n");
+    }
+
+    public static void main(String[] args) {
+        new ExpressionBenchmark().run(args);
+    }
+}
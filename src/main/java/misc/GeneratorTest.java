@@ -3,29 +3,179 @@ package misc;
 import misc.risc.Code;
 import misc.risc.Generator;
 
-import java.io.InputStream;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 
 /**
  * usage: java misc.GeneratorTest <options> [source [objet]]
  * options :
  * -debug    Print debug messages
+ * -parallel Use all cores for large sources
+ * -pipeline Scan and parse on two threads
+ * -noopt    Do not optimize the analyzed trees
+ * -stream   Compile and write one declaration at a time
+ * -arena    Parse into a TreeArena, analyze it by index and generate one
+ *           declaration at a time
+ * -stats    Print the time, allocation and counts of each phase
  * -? -help  Print help
  */
 public class GeneratorTest extends AbstractMain {
 
-    public void run(Global global, InputStream in, PrintWriter out) {
+    public boolean stream = false;
+
+    public boolean arena = false;
+
+    public void run(Global global) {
+        if (stream && arena) throw abort("-stream and -arena are exclusive");
+        if (stream && stats != null) throw abort("-stats does not measure -stream");
+        if (arena && stats != null) throw abort("-stats does not measure -arena");
+        super.run(global);
+    }
+
+    public void run(Global global, Source in, PrintWriter out) {
+        if (stream) {
+            stream(global, in, out);
+            return;
+        }
+        if (arena) {
+            arena(global, in, out);
+            return;
+        }
+        if (stats != null) {
+            Statistics statistics = new Statistics(global.source);
+            try {
+                run(global, in, out, statistics);
+            } finally {
+                if (stats.equals("json")) statistics.writeJson(System.err);
+                else statistics.write(System.err);
+            }
+            return;
+        }
         Parser parser = new Parser(global, in);
         Tree tree = parser.parse();
         Analyzer analyzer = new Analyzer(global);
         Scope scope = analyzer.createGlobalScope();
         analyzer.analyze(tree, scope);
         if (global.errors() > 0) return;
+        if (optimize) tree = new Optimizer().optimize(tree);
         Generator generator = new Generator(global);
         Code code = generator.generate(scope, tree);
         code.write(out);
     }
 
+    /**
+     * Compiles as run() does, with the scan, parse, analyze, generate and
+     * write phases measured one after the other. With -pipeline the tokens
+     * are scanned while they are parsed, the time of the scan is then part
+     * of that of the parse.
+     */
+    public void run(Global global, Source in, PrintWriter out, Statistics statistics) {
+        statistics.start("scan");
+        TokenStream tokens = Parser.tokens(global, in);
+        statistics.start("parse");
+        Tree tree = new Parser(global, tokens).parse();
+        statistics.stop();
+        if (tokens instanceof TokenBuffer) statistics.count("tokens", ((TokenBuffer) tokens).size());
+        statistics.start("analyze");
+        Analyzer analyzer = new Analyzer(global);
+        Scope scope = analyzer.createGlobalScope();
+        analyzer.analyze(tree, scope);
+        statistics.stop();
+        TreeCounter counter = new TreeCounter().count(tree);
+        statistics.count("nodes", counter.nodes);
+        statistics.count("symbols", counter.symbols);
+        if (global.errors() > 0) return;
+        if (optimize) {
+            statistics.start("optimize");
+            Optimizer optimizer = new Optimizer();
+            tree = optimizer.optimize(tree);
+            statistics.stop();
+            statistics.count("folded", optimizer.folded);
+        }
+        statistics.start("generate");
+        Generator generator = new Generator(global);
+        Code code = generator.generate(scope, tree);
+        statistics.start("write");
+        code.write(out);
+        out.flush();
+        statistics.stop();
+        statistics.count("instructions", code.size());
+    }
+
+    /**
+     * Parses, analyzes, generates and writes each declaration before reading
+     * the next one: only the symbols of the declarations are kept. Nothing
+     * more is written once an error is found.
+     */
+    public void stream(Global global, Source in, PrintWriter out) {
+        TokenWindow tokens = new TokenWindow(new Scanner(global, in));
+        Parser parser = new Parser(global, tokens);
+        Analyzer analyzer = new Analyzer(global);
+        Scope scope = analyzer.createGlobalScope();
+        Scope program = new Scope(scope);
+        Optimizer optimizer = optimize ? new Optimizer() : null;
+        Generator generator = new Generator(global);
+        Code code = generator.begin(scope);
+        Tree decl;
+        while ((decl = parser.parseNextDeclaration()) != null) {
+            analyzer.analyze(decl, program);
+            if (global.errors() == 0) {
+                generator.declaration(optimizer == null ? decl : optimizer.optimize(decl));
+                code.flush(out);
+            }
+            tokens.release(parser.mark());
+        }
+        Tree main = parser.parseMain();
+        analyzer.analyze(main, program);
+        if (global.errors() > 0) return;
+        generator.end(optimizer == null ? main : optimizer.optimize(main));
+        code.flush(out);
+    }
+
+    /**
+     * Parses the program into a TreeArena and analyzes it there, then
+     * generates and writes each declaration from its tree, built again from
+     * the arena: only the trees of one declaration are held at a time.
+     */
+    public void arena(Global global, Source in, PrintWriter out) {
+        TreeArena arena = new TreeArena(global.names);
+        int program = arena.parse(new Parser(global, in));
+        Analyzer analyzer = new Analyzer(global);
+        Scope scope = analyzer.createGlobalScope();
+        analyzer.analyze(arena, program, scope);
+        if (global.errors() > 0) return;
+        Optimizer optimizer = optimize ? new Optimizer() : null;
+        Generator generator = new Generator(global);
+        Code code = generator.begin(scope);
+        int main = arena.first(program);
+        for (int decl = arena.next(main); decl != TreeArena.NONE; decl = arena.next(decl)) {
+            Tree tree = arena.tree(decl, true);
+            generator.declaration(optimizer == null ? tree : optimizer.optimize(tree));
+            code.flush(out);
+        }
+        Tree tree = arena.tree(main, true);
+        generator.end(optimizer == null ? tree : optimizer.optimize(tree));
+        code.flush(out);
+    }
+
+    public int handleOption(String[] args, int i) {
+        if (args[i].equals("-stream")) {
+            stream = true;
+            return 1;
+        } else if (args[i].equals("-arena")) {
+            arena = true;
+            return 1;
+        } else {
+            return super.handleOption(args, i);
+        }
+    }
+
+    public void printHelp(PrintStream out) {
+        super.printHelp(out);
+        out.println("  -stream   Compiles one declaration at a time");
+        out.println("  -arena    Analyzes the nodes of a TreeArena, generates one declaration at a time");
+    }
+
     public static void main(String[] args) {
         new GeneratorTest().run(args);
     }
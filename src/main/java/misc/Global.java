@@ -1,30 +1,64 @@
 package misc;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.HashSet;
 
+/**
+ * State of one compilation: options, names, types and errors. There may be several
+ * compilations at once, each with its own Global.
+ */
 public class Global {
 
-    public static Global instance;
-
     public final String source;
 
     public final boolean debug;
 
+    public final boolean parallel;
+
+    public final boolean pipeline;
+
+    public final Names names;
+
+    public final Types types;
+
     private int errorCounter;
 
     private final HashSet<Integer> errorPositions;
 
     private final Error abort;
 
+    /**
+     * errors of the compilation, printed if null
+     */
+    private final Diagnostics diagnostics;
+
+    /**
+     * errors of the current thread, recorded instead of being reported
+     */
+    private final ThreadLocal<Diagnostics> recording;
+
     public Global(AbstractMain main) {
-        if (instance != null) throw new Error("second instance of Global");
-        instance = this;
-        this.source = main.source;
-        this.debug = main.debug;
-        this.abort = main.abort;
+        this(main.source, main.debug, main.parallel, main.pipeline, main.abort, null);
+    }
+
+    /**
+     * The errors are added to diagnostics, or printed if it is null. Fatal
+     * errors throw abort.
+     */
+    public Global(String source, boolean debug, boolean parallel, boolean pipeline,
+                  Error abort, Diagnostics diagnostics) {
+        this.source = source;
+        this.debug = debug;
+        this.parallel = parallel;
+        this.pipeline = pipeline;
+        this.names = new Names();
+        this.types = new Types();
+        this.abort = abort;
+        this.diagnostics = diagnostics;
         this.errorCounter = 0;
         this.errorPositions = new HashSet<>();
+        this.recording = new ThreadLocal<>();
     }
 
     public void debug(String message) {
@@ -35,7 +69,7 @@ public class Global {
         if (debug) print(position, "[debug] " + message);
     }
 
-    public int errors() {
+    public synchronized int errors() {
         return errorCounter;
     }
 
@@ -43,7 +77,29 @@ public class Global {
         error(Position.UNDEFINED, message);
     }
 
-    public void error(int position, String message) {
+    /**
+     * forgets the errors reported so far, before compiling a new version
+     * of the source.
+     */
+    public synchronized void resetErrors() {
+        errorCounter = 0;
+        errorPositions.clear();
+    }
+
+    /**
+     * records the errors of the current thread in diagnostics until
+     * record(null) is called.
+     */
+    public void record(Diagnostics diagnostics) {
+        recording.set(diagnostics);
+    }
+
+    public synchronized void error(int position, String message) {
+        Diagnostics diagnostics = recording.get();
+        if (diagnostics != null) {
+            diagnostics.add(position, message);
+            return;
+        }
         Integer key = position;
         if (position == Position.UNDEFINED) {
             errorCounter++;
@@ -62,7 +118,7 @@ public class Global {
         return fatal(Position.UNDEFINED, message);
     }
 
-    public Error fatal(int position, String message) {
+    public synchronized Error fatal(int position, String message) {
         errorCounter++;
         print(position, message);
         throw abort;
@@ -81,6 +137,10 @@ public class Global {
     }
 
     private void print(int position, String message) {
+        if (diagnostics != null) {
+            diagnostics.add(position, message);
+            return;
+        }
         if (source != null && !source.equals("-")) {
             System.out.print(source);
             System.out.print(":");
@@ -103,6 +163,15 @@ public class Global {
         }
     }
 
+    public Source openSource(String filename) {
+        if (filename == null || filename.equals("-")) return new Source.Stream(System.in);
+        try {
+            return Source.map(Paths.get(filename));
+        } catch (IOException exception) {
+            throw fatal(0, "Cannot open file " + filename);
+        }
+    }
+
     public OutputStream openOutput(String filename) {
         if (filename == null || filename.equals("-")) return System.out;
         try {
@@ -120,6 +189,14 @@ public class Global {
         }
     }
 
+    public void close(Source in) {
+        try {
+            in.close();
+        } catch (IOException exception) {
+            fatal(0, exception);
+        }
+    }
+
     public void close(OutputStream in) {
         try {
             in.close();
@@ -0,0 +1,237 @@
+package misc;
+
+import misc.Tree.*;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Analyzes successive versions of a program. A declaration whose text has
+ * not changed keeps the tree, the annotations and the errors of its last
+ * analysis. Its body is checked again only if one of the functions it uses
+ * is bound to another symbol: signature changed, function added, removed
+ * or moved after it.
+ * The signatures are entered again in each version, which is cheap. A
+ * changed declaration keeps the symbol of the previous version when its
+ * signature is the same, so the bodies using it are still valid.
+ * The trees of the unchanged declarations keep the positions of the version
+ * they have been analyzed in, their symbols and errors are moved to the
+ * current one.
+ */
+public class IncrementalAnalyzer {
+
+    private final Global global;
+
+    private final Analyzer analyzer;
+
+    private final Scope scope;
+
+    private Entry[] entries;
+
+    private int checked;
+
+    /**
+     * Analysis of a declaration.
+     */
+    private static class Entry {
+        final String text;
+        int pos;
+        int index;
+        FunDecl tree;
+        Map<Name, Symbol> uses;
+        Diagnostics formals;
+        Diagnostics entered;
+        Diagnostics body;
+
+        Entry(String text, int pos) {
+            this.text = text;
+            this.pos = pos;
+        }
+    }
+
+    public IncrementalAnalyzer(Global global) {
+        this.global = global;
+        this.analyzer = new Analyzer(global, null);
+        this.scope = analyzer.createGlobalScope();
+        this.entries = new Entry[0];
+    }
+
+    /**
+     * returns the global scope of the programs.
+     */
+    public Scope scope() {
+        return scope;
+    }
+
+    /**
+     * returns the number of bodies checked by the last analysis.
+     */
+    public int checked() {
+        return checked;
+    }
+
+    /**
+     * Analyzes the program parsed from text, reports its errors and returns
+     * the program to generate, made of the trees of the changed declarations
+     * and of the unchanged ones of the previous version.
+     */
+    public Tree analyze(Tree tree, String text) {
+        Program program = (Program) tree;
+        int[] lines = lines(text);
+        int n = program.decls.length;
+
+        // match the declarations with those of the previous version, in
+        // order, or by text after a declaration added, removed or moved
+        Map<String, ArrayDeque<Entry>> previous = null;
+        Entry[] current = new Entry[n];
+        boolean[] changed = new boolean[n];
+        boolean[] taken = new boolean[entries.length];
+        Set<Symbol> kept = new HashSet<>();
+        int next = 0;
+        for (int i = 0; i < n; i++) {
+            FunDecl decl = (FunDecl) program.decls[i];
+            int start = offset(lines, decl.pos);
+            int end = offset(lines, i + 1 < n ? program.decls[i + 1].pos : program.expr.pos);
+            Entry entry = next < entries.length && !taken[next] ? entries[next] : null;
+            if (entry != null && same(entry, text, start, end, decl.pos)) {
+                if (previous != null) previous.get(entry.text).remove(entry);
+            } else {
+                if (previous == null) previous = index(entries, next);
+                String key = text.substring(start, end);
+                ArrayDeque<Entry> same = previous.get(key);
+                entry = same == null ? null : same.peek();
+                if (entry != null && Position.column(entry.pos) == Position.column(decl.pos)) {
+                    same.poll();
+                } else {
+                    entry = new Entry(key, decl.pos);
+                    changed[i] = true;
+                }
+            }
+            if (!changed[i]) {
+                taken[entry.index] = true;
+                kept.add(entry.tree.sym);
+                next = entry.index + 1;
+            }
+            entry.index = i;
+            current[i] = entry;
+        }
+
+        // symbols of the removed and changed declarations, by name
+        Map<Name, Symbol> symbols = new HashMap<>();
+        for (Entry entry : entries)
+            if (!kept.contains(entry.tree.sym)) symbols.put(entry.tree.name, entry.tree.sym);
+
+        Scope scope = new Scope(this.scope);
+        Tree[] decls = new Tree[n];
+        checked = 0;
+        for (int i = 0; i < n; i++) {
+            FunDecl decl = (FunDecl) program.decls[i];
+            Entry entry = current[i];
+            Scope view = scope.view();
+            Scope scopeArgs = null;
+            if (changed[i]) {
+                entry.formals = new Diagnostics();
+                global.record(entry.formals);
+                scopeArgs = analyzer.signature(decl, view);
+                global.record(null);
+                Symbol sym = symbols.get(decl.name);
+                if (sym != null && sym.type == decl.sym.type) {
+                    symbols.remove(decl.name);
+                    decl.sym = sym;
+                }
+            } else {
+                int shift = Position.line(decl.pos) - Position.line(entry.pos);
+                entry.formals.shift(shift);
+                entry.body.shift(shift);
+            }
+            Symbol sym = changed[i] ? decl.sym : entry.tree.sym;
+            sym.pos = decl.pos;
+            entry.pos = decl.pos;
+            entry.entered = new Diagnostics();
+            global.record(entry.entered);
+            scope.enter(sym);
+            global.record(null);
+            if (!changed[i] && !resolves(entry.uses, view)) {
+                // check the new tree, with the symbol of the previous one
+                entry.formals = new Diagnostics();
+                global.record(entry.formals);
+                scopeArgs = analyzer.signature(decl, view);
+                global.record(null);
+                decl.sym = sym;
+            }
+            if (scopeArgs != null) {
+                entry.tree = decl;
+                entry.uses = new HashMap<>();
+                entry.body = new Diagnostics();
+                global.record(entry.body);
+                try {
+                    analyzer.define(decl, scopeArgs, entry.uses);
+                } finally {
+                    global.record(null);
+                }
+                checked++;
+            }
+            decls[i] = entry.tree;
+        }
+        entries = current;
+
+        for (Entry entry : entries) {
+            entry.formals.replay(global);
+            entry.entered.replay(global);
+            entry.body.replay(global);
+        }
+        analyzer.analyze(program.expr, scope);
+        Program result = new Program(program.pos, decls, program.expr);
+        result.typ = Type.NONE;
+        return result;
+    }
+
+    /**
+     * returns true if the text from start to end at pos is the text of entry.
+     */
+    private static boolean same(Entry entry, String text, int start, int end, int pos) {
+        return entry.text.length() == end - start &&
+                Position.column(entry.pos) == Position.column(pos) &&
+                text.regionMatches(start, entry.text, 0, end - start);
+    }
+
+    /**
+     * returns the entries from start, by text.
+     */
+    private static Map<String, ArrayDeque<Entry>> index(Entry[] entries, int start) {
+        Map<String, ArrayDeque<Entry>> index = new HashMap<>();
+        for (int i = start; i < entries.length; i++)
+            index.computeIfAbsent(entries[i].text, key -> new ArrayDeque<>()).add(entries[i]);
+        return index;
+    }
+
+    /**
+     * returns true if the names still resolve to the same symbols in scope.
+     */
+    private static boolean resolves(Map<Name, Symbol> uses, Scope scope) {
+        for (Map.Entry<Name, Symbol> use : uses.entrySet())
+            if (scope.lookup(use.getKey()) != use.getValue()) return false;
+        return true;
+    }
+
+    /**
+     * returns the offsets of the lines of text, from line 1.
+     */
+    private static int[] lines(String text) {
+        int[] lines = new int[1024];
+        int line = 1;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            if (++line == lines.length) lines = Arrays.copyOf(lines, 2 * line);
+            lines[line] = i + 1;
+        }
+        return lines;
+    }
+
+    private static int offset(int[] lines, int pos) {
+        return lines[Position.line(pos)] + Position.column(pos) - 1;
+    }
+}
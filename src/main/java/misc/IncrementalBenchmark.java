@@ -0,0 +1,101 @@
+package misc;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * usage: java misc.IncrementalBenchmark <options> [- [output]]
+ * Measures the incremental analysis of a program of 20k lines after the
+ * edit of one function: of its body, of its signature (one user), and of
+ * the signature of the function used by all the others.
+ */
+public class IncrementalBenchmark extends Benchmark {
+
+    public static final int LINES = 20000;
+
+    /**
+     * generates its own programs, the source is not used.
+     */
+    public void run(Global global) {
+        OutputStream out = global.openOutput(object);
+        PrintWriter writer = new PrintWriter(out, true);
+        measure(global, writer);
+        writer.close();
+        global.close(out);
+    }
+
+    public void measure(Global global, PrintWriter out) {
+        int n = LINES / 5;
+        int edited = n / 2;
+        String program = text(n, -1, null);
+        out.printf("%d lines, %d declarations%n", LINES, n);
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i <= runs; i++) {
+            Tree tree = parse(global, program);
+            Analyzer analyzer = new Analyzer(global);
+            Scope scope = analyzer.createGlobalScope();
+            long start = System.nanoTime();
+            analyzer.analyze(tree, scope);
+            if (i > 0) best = Math.min(best, System.nanoTime() - start);
+        }
+        report(out, "full analysis", best / 1e6, "ms");
+
+        measure(global, out, "edit of a body", program, text(n, edited, "body"));
+        measure(global, out, "edit of a signature", program, text(n, edited, "signature"));
+        measure(global, out, "edit of a signature used by all", program, text(n, 0, "signature"));
+    }
+
+    /**
+     * measures the analysis of the edited program, after the program.
+     */
+    private void measure(Global global, PrintWriter out, String label, String program, String edited) {
+        long best = Long.MAX_VALUE;
+        int checked = 0;
+        for (int i = 0; i <= runs; i++) {
+            IncrementalAnalyzer analyzer = new IncrementalAnalyzer(global);
+            analyzer.analyze(parse(global, program), program);
+            Tree tree = parse(global, edited);
+            long start = System.nanoTime();
+            analyzer.analyze(tree, edited);
+            if (i > 0) best = Math.min(best, System.nanoTime() - start);
+            checked = analyzer.checked();
+        }
+        report(out, label, best / 1e6, "ms");
+        out.printf("  %d bodies checked%n", checked);
+    }
+
+    private Tree parse(Global global, String text) {
+        ByteBuffer input = ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+        return new Parser(global, new Source.Buffer(input)).parse();
+    }
+
+    /**
+     * returns a program of n declarations of 5 lines, with the given edit
+     * of the declaration number edited. Each function calls the previous
+     * one and the first one, for their side effects only.
+     */
+    private static String text(int n, int edited, String edit) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            boolean signature = i == edited && "signature".equals(edit);
+            out.append("def f").append(i).append(" (x: Int, l: List[Int]): ")
+                    .append(signature ? "List[Int]" : "Int").append(" = {\n");
+            if (i == edited && "body".equals(edit)) out.append("  // edited\n");
+            out.append("  var y: Int = x * ").append(i == edited ? 3 : 2)
+                    .append(" + ").append(i % 100).append(";\n");
+            if (i == 0) out.append("  y;\n");
+            else out.append("  f").append(i - 1).append(" (y, l); f0 (x, l);\n");
+            out.append(signature ? "  l\n" : "  if (isEmpty (l) | y < 0) y else head (l)\n");
+            out.append("};\n");
+        }
+        out.append("printInt (f").append(n - 1).append(" (3, [1, 2, 3]))\n");
+        return out.toString();
+    }
+
+    public static void main(String[] args) {
+        new IncrementalBenchmark().run(args);
+    }
+}
@@ -0,0 +1,160 @@
+package misc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Keeps the tokens of a source up to date while it is edited. Tokens never
+ * span lines, so an edit only needs the lines it touches to be scanned
+ * again. The tokens after these lines are kept, their positions are moved
+ * if the edit added or removed lines.
+ */
+public class IncrementalLexer implements Tokens {
+
+    private final Global global;
+
+    /**
+     * text of the source
+     */
+    private byte[] text;
+
+    private int length;
+
+    /**
+     * offsets of the first char of each line
+     */
+    private int[] lines;
+
+    private int lineCount;
+
+    private final TokenBuffer tokens;
+
+    public IncrementalLexer(Global global, byte[] text) {
+        this.global = global;
+        this.text = Arrays.copyOf(text, text.length);
+        this.length = text.length;
+        this.lines = new int[1 << 10];
+        this.lineCount = 1;
+        addLines(0, length);
+        this.tokens = scan(0, length);
+    }
+
+    public TokenBuffer tokens() {
+        return tokens;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public byte[] text() {
+        return Arrays.copyOf(text, length);
+    }
+
+    /**
+     * Span of changed tokens: the tokens from start to oldEnd (excluded) have
+     * been replaced by the tokens from start to newEnd (excluded). The tokens
+     * after them are unchanged, but moved the given number of lines down.
+     */
+    public static class Damage {
+        public final int start;
+        public final int oldEnd;
+        public final int newEnd;
+        public final int lines;
+
+        public Damage(int start, int oldEnd, int newEnd, int lines) {
+            this.start = start;
+            this.oldEnd = oldEnd;
+            this.newEnd = newEnd;
+            this.lines = lines;
+        }
+
+        public String toString() {
+            return "[" + start + ", " + oldEnd + ") -> [" + start + ", " + newEnd + ")";
+        }
+    }
+
+    /**
+     * replaces the removed bytes at offset by inserted and updates the tokens.
+     */
+    public Damage edit(int offset, int removed, byte[] inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > length)
+            throw new IllegalArgumentException("invalid edit at " + offset);
+
+        // damaged lines, the previous line is included for "\r" + "\n"
+        int first = line(Math.max(offset - 1, 0));
+        int last = line(offset + removed);
+        int from = lines[first];
+        int oldEnd = last + 1 < lineCount ? lines[last + 1] : length;
+        int oldStart = tokens.search(first + 1);
+        int oldStop = oldEnd == length ? tokens.size() : tokens.search(last + 2);
+
+        // text
+        int delta = inserted.length - removed;
+        if (length + delta > text.length)
+            text = Arrays.copyOf(text, Math.max(length + delta, text.length * 2));
+        System.arraycopy(text, offset + removed, text, offset + inserted.length,
+                length - offset - removed);
+        System.arraycopy(inserted, 0, text, offset, inserted.length);
+        length += delta;
+        int newEnd = oldEnd + delta;
+
+        // lines
+        int[] tail = Arrays.copyOfRange(lines, last + 1, lineCount);
+        int oldLineCount = lineCount;
+        lineCount = first + 1;
+        addLines(from, newEnd);
+        for (int start : tail) addLine(start + delta);
+        int lineDelta = lineCount - oldLineCount;
+
+        // tokens
+        TokenBuffer scanned = scan(from, newEnd);
+        scanned.shift(0, first);
+        int size = scanned.size() - (newEnd == length ? 0 : 1);
+        int prefix = 0;
+        while (oldStart + prefix < oldStop && prefix < size &&
+                tokens.same(oldStart + prefix, scanned, prefix, 0)) prefix++;
+        int suffix = 0;
+        while (oldStop - suffix > oldStart + prefix && size - suffix > prefix &&
+                scanned.same(size - suffix - 1, tokens, oldStop - suffix - 1, lineDelta)) suffix++;
+        tokens.replace(oldStart + prefix, oldStop - suffix, scanned, prefix, size - suffix);
+        tokens.shift(oldStart + size - suffix, lineDelta);
+        return new Damage(oldStart + prefix, oldStop - suffix, oldStart + size - suffix, lineDelta);
+    }
+
+    /**
+     * returns the index of the line containing the given offset.
+     */
+    private int line(int offset) {
+        int low = 0;
+        int high = lineCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (lines[middle] <= offset) low = middle;
+            else high = middle - 1;
+        }
+        return low;
+    }
+
+    /**
+     * adds the lines starting after the given offset, up to the end offset (excluded).
+     */
+    private void addLines(int from, int end) {
+        for (int i = from; i < end; i++) {
+            byte ch = text[i];
+            if (ch == '\n' || (ch == '\r' && (i + 1 == length || text[i + 1] != '\n'))) {
+                if (i + 1 < end) addLine(i + 1);
+            }
+        }
+    }
+
+    private void addLine(int start) {
+        if (lineCount == lines.length) lines = Arrays.copyOf(lines, lineCount * 2);
+        lines[lineCount++] = start;
+    }
+
+    private TokenBuffer scan(int from, int end) {
+        Source in = new Source.Buffer(ByteBuffer.wrap(text, from, end - from));
+        return new TokenBuffer().scan(new Scanner(global, in));
+    }
+}
@@ -0,0 +1,83 @@
+package misc;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * usage: java misc.IncrementalLexerBenchmark <options> [source]
+ * Applies random one character edits (insertions, newlines and deletions)
+ * and compares the latency of the incremental lexer with a full lexing of
+ * the source. The default generated program has about 50k lines.
+ */
+public class IncrementalLexerBenchmark extends Benchmark {
+
+    public static final int EDITS = 10000;
+
+    /**
+     * generates about 50k lines (declarations take 5 lines of about 30 bytes).
+     */
+    public String generate(Global global, long bytes) {
+        return super.generate(global, 50000 * 30);
+    }
+
+    public void measure(Global global, PrintWriter out) {
+        byte[] text = read(global);
+        IncrementalLexer lexer = new IncrementalLexer(global, text);
+        int lines = Position.line(lexer.tokens().position(lexer.tokens().size() - 1));
+        out.printf("%s: %d lines, %d tokens%n", source, lines, lexer.tokens().size());
+        double full = time(() -> scan(global, text));
+        report(out, "full lexing", full * 1e3, "ms");
+
+        Random random = new Random(42);
+        long total = 0;
+        long worst = 0;
+        long damaged = 0;
+        for (int i = 0; i < EDITS; i++) {
+            int offset = random.nextInt(lexer.length());
+            long start = System.nanoTime();
+            IncrementalLexer.Damage damage;
+            switch (i % 3) {
+                case 0:
+                    damage = lexer.edit(offset, 0, new byte[]{'a'});
+                    break;
+                case 1:
+                    damage = lexer.edit(offset, 0, new byte[]{'\n'});
+                    break;
+                default:
+                    damage = lexer.edit(offset, 1, new byte[0]);
+            }
+            long time = System.nanoTime() - start;
+            if (i >= EDITS / 10) {
+                total += time;
+                worst = Math.max(worst, time);
+            }
+            damaged += damage.newEnd - damage.start;
+        }
+        int measured = EDITS - EDITS / 10;
+        report(out, "incremental edit (mean)", total / 1e6 / measured, "ms");
+        report(out, "incremental edit (worst)", worst / 1e6, "ms");
+        report(out, "changed tokens per edit", damaged / (double) EDITS, "tokens");
+        report(out, "speedup (mean)", full * 1e9 / (total / (double) measured), "x");
+        if (!same(scan(global, lexer.text()), lexer.tokens())) out.println("different tokens!");
+    }
+
+    private byte[] read(Global global) {
+        try {
+            return Files.readAllBytes(Paths.get(source));
+        } catch (IOException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    private static TokenBuffer scan(Global global, byte[] text) {
+        return new TokenBuffer().scan(new Scanner(global, new Source.Buffer(ByteBuffer.wrap(text))));
+    }
+
+    public static void main(String[] args) {
+        new IncrementalLexerBenchmark().run(args);
+    }
+}
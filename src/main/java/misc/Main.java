@@ -1,23 +1,353 @@
 package misc;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 /**
  * usage: java misc.Main <options> [source [objet]]
+ * java misc.Main <options> (source | directory | glob)...
  * options:
  * -debug    Prints debug messages
+ * -parallel Uses all cores for large sources
+ * -pipeline Scans and parses on two threads
+ * -noopt    Does not optimize the analyzed trees
+ * -stream   Compiles one declaration at a time
+ * -arena    Analyzes the nodes of a TreeArena, generates one declaration at a time
+ * -cache <directory>  Copies the objects of unchanged sources from the
+ *           directory instead of compiling them
+ * -cachesize <n>      Size in MB of the cache, 64 by default
+ * -watch    Compiles the sources again each time they change
  * -? -help  Prints help
+ * Several sources, the sources of a directory or those matching a glob are
+ * compiled in parallel, each with its own errors, into the object next to it.
  */
 public class Main extends GeneratorTest {
 
     public static final String RISC = "risc";
 
+    public static final String MISC = "misc";
+
+    /**
+     * sources, directories and globs of a batch, null for a single source
+     */
+    public List<String> batch = null;
+
+    /**
+     * directory of the cache, null if there is none
+     */
+    public String cache = null;
+
+    public long cacheSize = CompilationCache.SIZE;
+
+    public boolean watch = false;
+
     public void run(Global global) {
-        if (source != null && object == null) {
-            int dot = source.lastIndexOf('.');
-            object = (dot < 0 ? source : source.substring(0, dot)) + ".risc";
+        if (stats != null && (watch || batch != null)) throw abort("-stats compiles a single source");
+        if (watch) {
+            watch(global);
+            return;
+        }
+        if (batch != null) {
+            compile(global, sources(global));
+            return;
+        }
+        if (source != null && object == null) object = object(source);
+        if (cache != null && !stream && !arena && stats == null && source != null && !source.equals("-") && !object.equals("-")) {
+            CompilationCache cache = cache(global);
+            if (cache != null) {
+                compile(global, cache);
+                cache.report(System.out);
+                return;
+            }
         }
         super.run(global);
     }
 
+    /**
+     * compiles the sources, then each again when it changes, until the JVM
+     * is stopped.
+     */
+    public void watch(Global global) {
+        if (stream) throw abort("-stream cannot be used with -watch");
+        if (arena) throw abort("-arena cannot be used with -watch");
+        if (batch == null && (source == null || source.equals("-"))) throw abort("-watch needs a source");
+        Watcher watcher = new Watcher(debug, parallel, pipeline, optimize, System.out);
+        if (batch != null) {
+            for (Path source : sources(global)) watcher.add(source, Paths.get(object(source.toString())));
+        } else {
+            watcher.add(Paths.get(source), Paths.get(object == null ? object(source) : object));
+        }
+        try {
+            watcher.watch();
+        } catch (IOException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    /**
+     * Copies the object of the source from the cache, or compiles it and
+     * keeps its object in the cache if there is no error.
+     */
+    public void compile(Global global, CompilationCache cache) {
+        byte[] text;
+        try {
+            text = Files.readAllBytes(Paths.get(source));
+        } catch (IOException exception) {
+            throw global.fatal(0, "Cannot open file " + source);
+        }
+        String key = CompilationCache.key(text, options());
+        if (cache.get(key, Paths.get(object))) return;
+        OutputStream out = global.openOutput(object);
+        PrintWriter writer = new PrintWriter(out, true);
+        run(global, new Source.Buffer(ByteBuffer.wrap(text)), writer);
+        writer.close();
+        global.close(out);
+        if (global.errors() > 0) return;
+        try {
+            cache.put(key, Paths.get(object));
+        } catch (IOException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    /**
+     * returns the cache, null if the version of the compiler is unknown.
+     */
+    public CompilationCache cache(Global global) {
+        if (CompilationCache.version() == null) {
+            System.err.println("warning: unknown version of the compiler, the cache is not used");
+            return null;
+        }
+        try {
+            return new CompilationCache(Paths.get(cache), cacheSize);
+        } catch (IOException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    /**
+     * returns the options the object depends on, part of the key of the cache.
+     */
+    public String options() {
+        return (debug ? "-debug " : "") + (parallel ? "-parallel " : "") + (pipeline ? "-pipeline " : "") +
+                (optimize ? "" : "-noopt ");
+    }
+
+    /**
+     * returns the object next to the source.
+     */
+    public static String object(String source) {
+        int dot = source.lastIndexOf('.');
+        return (dot < 0 ? source : source.substring(0, dot)) + "." + RISC;
+    }
+
+    /**
+     * Compiles the sources on all cores, each by a session of its own, and
+     * writes their objects. Prints the errors of each source in order, the
+     * time of each and the number of errors of all.
+     */
+    public void compile(Global global, List<Path> sources) {
+        if (stream) throw abort("-stream compiles a single source");
+        if (arena) throw abort("-arena compiles a single source");
+        int threads = Math.max(1, Math.min(sources.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompilerSession session = new CompilerSession(parallel, pipeline, optimize);
+        CompilationCache cache = this.cache == null ? null : cache(global);
+        long start = System.nanoTime();
+        List<Future<Compilation>> compilations = new ArrayList<>();
+        for (Path source : sources) compilations.add(pool.submit(() -> compile(session, cache, source)));
+        pool.shutdown();
+
+        int errors = 0;
+        PrintStream out = System.out;
+        for (Future<Compilation> future : compilations) {
+            Compilation compilation = get(global, future);
+            int count = compilation.result.diagnostics.size();
+            System.err.print(compilation.result.errors());
+            errors += count;
+            out.printf("%-40s %10.2f ms", compilation.result.source, compilation.time / 1e6);
+            if (count > 0) out.print("  " + count + (count > 1 ? " errors" : " error"));
+            if (compilation.cached) out.print("  cached");
+            out.println();
+        }
+        out.printf("%d source(s) in %.2f ms on %d thread(s)%n",
+                sources.size(), (System.nanoTime() - start) / 1e6, threads);
+        if (cache != null) cache.report(out);
+        if (errors > 0) {
+            System.err.println();
+            System.err.println(errors + (errors > 1 ? " errors" : " error"));
+        }
+    }
+
+    /**
+     * result and time in nanoseconds of the compilation of a source, cached
+     * if its object was copied from the cache.
+     */
+    private static class Compilation {
+        final CompilerSession.Result result;
+        final boolean cached;
+        final long time;
+
+        Compilation(CompilerSession.Result result, boolean cached, long time) {
+            this.result = result;
+            this.cached = cached;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Compiles the source, writes its object, empty if there are errors.
+     * With a cache, copies the object from it instead if it is there.
+     */
+    private Compilation compile(CompilerSession session, CompilationCache cache, Path source)
+            throws IOException {
+        long start = System.nanoTime();
+        Path object = Paths.get(object(source.toString()));
+        if (cache == null || !Files.isReadable(source)) {
+            return compile(session.compile(source), object, start);
+        }
+        byte[] text = Files.readAllBytes(source);
+        String key = CompilationCache.key(text, options());
+        if (cache.get(key, object)) {
+            CompilerSession.Result result = new CompilerSession.Result(source.toString(), new Diagnostics(), null);
+            return new Compilation(result, true, System.nanoTime() - start);
+        }
+        Compilation compilation = compile(session.compile(source.toString(), ByteBuffer.wrap(text)), object, start);
+        if (compilation.result.succeeded()) cache.put(key, object);
+        return compilation;
+    }
+
+    private static Compilation compile(CompilerSession.Result result, Path object, long start)
+            throws IOException {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(object.toFile()), StandardCharsets.ISO_8859_1))) {
+            if (result.succeeded()) result.code.write(out);
+        }
+        return new Compilation(result, false, System.nanoTime() - start);
+    }
+
+    private static Compilation get(Global global, Future<Compilation> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof Error) throw (Error) exception.getCause();
+            throw global.fatal((Exception) exception.getCause());
+        } catch (InterruptedException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    /**
+     * returns the sources of the batch: the files, the sources under the
+     * directories and the files matching the globs, in the order given.
+     */
+    public List<Path> sources(Global global) {
+        List<Path> sources = new ArrayList<>();
+        for (String name : batch) {
+            Path path = Paths.get(name);
+            if (isGlob(name)) {
+                sources.addAll(walk(global, root(name), FileSystems.getDefault().getPathMatcher("glob:" + name)));
+            } else if (Files.isDirectory(path)) {
+                sources.addAll(walk(global, path, FileSystems.getDefault().getPathMatcher("glob:**." + MISC)));
+            } else {
+                sources.add(path);
+            }
+        }
+        if (sources.isEmpty()) throw global.fatal("no source in " + String.join(" ", batch));
+        return sources;
+    }
+
+    private static List<Path> walk(Global global, Path root, PathMatcher matcher) {
+        if (!Files.isDirectory(root)) return new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(path -> Files.isRegularFile(path) && matcher.matches(path))
+                    .sorted().collect(Collectors.toList());
+        } catch (IOException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    /**
+     * returns the directory of the glob before its first wildcard.
+     */
+    private static Path root(String glob) {
+        int wildcard = 0;
+        while (!isGlob(glob.substring(0, wildcard + 1))) wildcard++;
+        int separator = glob.lastIndexOf('/', wildcard);
+        return Paths.get(separator < 0 ? "" : separator == 0 ? "/" : glob.substring(0, separator));
+    }
+
+    private static boolean isGlob(String name) {
+        return name.indexOf('*') >= 0 || name.indexOf('?') >= 0
+                || name.indexOf('[') >= 0 || name.indexOf('{') >= 0;
+    }
+
+    /**
+     * A directory, a glob or a second source starts a batch, any other second
+     * file is the object of the source.
+     */
+    public void handleFile(String filename) {
+        boolean many = isGlob(filename) || Files.isDirectory(Paths.get(filename))
+                || (source != null && object == null && filename.endsWith("." + MISC));
+        if (batch == null && !many) {
+            super.handleFile(filename);
+            return;
+        }
+        if (batch == null) {
+            if (object != null) throw abort("invalid argument " + filename);
+            batch = new ArrayList<>();
+            if (source != null) batch.add(source);
+            source = null;
+        }
+        batch.add(filename);
+    }
+
+    public int handleOption(String[] args, int i) {
+        if (args[i].equals("-cache") && i + 1 < args.length) {
+            cache = args[i + 1];
+            return 2;
+        } else if (args[i].equals("-cachesize") && i + 1 < args.length) {
+            cacheSize = Long.parseLong(args[i + 1]) << 20;
+            return 2;
+        } else if (args[i].equals("-watch")) {
+            watch = true;
+            return 1;
+        } else {
+            return super.handleOption(args, i);
+        }
+    }
+
+    public void printHelp(PrintStream out) {
+        super.printHelp(out);
+        out.println("  -cache <directory>  Copies the objects of unchanged sources from the directory");
+        out.println("  -cachesize <n>      Size in MB of the cache");
+        out.println("  -watch    Compiles the sources again each time they change");
+    }
+
+    public void printUsage(PrintStream out) {
+        super.printUsage(out);
+        out.println("       java " + getClass().getName() + " <options> (source | directory | glob)...");
+    }
+
     public static void main(String[] args) {
         new Main().run(args);
     }
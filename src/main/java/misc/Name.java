@@ -0,0 +1,50 @@
+package misc;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Name interned in a name table. There is one instance per distinct name,
+ * names can be compared by reference.
+ */
+public final class Name {
+
+    /**
+     * index of the name in its table
+     */
+    public final int index;
+
+    public final int hash;
+
+    /**
+     * token of keywords, IDENT for other names
+     */
+    public final int token;
+
+    /**
+     * characters of the name, as bytes
+     */
+    final byte[] bytes;
+
+    /**
+     * next name in the same hash bucket
+     */
+    Name next;
+
+    private String string;
+
+    Name(int index, int hash, int token, byte[] bytes) {
+        this.index = index;
+        this.hash = hash;
+        this.token = token;
+        this.bytes = bytes;
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    public String toString() {
+        if (string == null) string = new String(bytes, StandardCharsets.ISO_8859_1);
+        return string;
+    }
+}
@@ -0,0 +1,117 @@
+package misc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Table of the names of a compilation. Keywords are entered first, with
+ * their token, so that the scanner recognizes them by a table lookup.
+ * Hash codes are computed with hash(), one byte at a time.
+ */
+public final class Names implements Tokens {
+
+    private Name[] buckets;
+
+    /**
+     * names by index, volatile as it is read by the parser while the lexer
+     * thread of a TokenRing enters names
+     */
+    private volatile Name[] names;
+
+    private int count;
+
+    public Names() {
+        this.buckets = new Name[1 << 10];
+        this.names = new Name[1 << 10];
+        this.count = 0;
+        keyword("if", IF);
+        keyword("else", ELSE);
+        keyword("Int", INT);
+        keyword("List", LIST);
+        keyword("head", HEAD);
+        keyword("tail", TAIL);
+        keyword("isEmpty", ISEMPTY);
+        keyword("Unit", UNIT);
+        keyword("var", VAR);
+        keyword("while", WHILE);
+        keyword("def", DEF);
+        keyword("true", TRUE);
+        keyword("false", FALSE);
+    }
+
+    /**
+     * returns the hash of a name after appending the byte b to a name of hash h.
+     */
+    public static int hash(int h, int b) {
+        return 31 * h + (b & 0xff);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public Name get(int index) {
+        return names[index];
+    }
+
+    public Name enter(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        return enter(bytes, 0, bytes.length, hash(bytes, 0, bytes.length));
+    }
+
+    /**
+     * returns the name of this table equal to a name of another table.
+     */
+    public Name enter(Name name) {
+        return enter(name.bytes, 0, name.bytes.length, name.hash);
+    }
+
+    /**
+     * returns the name made of the given bytes, hash is the value computed
+     * by hash() on these bytes.
+     */
+    public Name enter(byte[] buf, int offset, int length, int hash) {
+        for (Name name = buckets[hash & (buckets.length - 1)]; name != null; name = name.next)
+            if (name.hash == hash && equals(name.bytes, buf, offset, length)) return name;
+        return add(Arrays.copyOfRange(buf, offset, offset + length), hash, IDENT);
+    }
+
+    private void keyword(String name, int token) {
+        byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        add(bytes, hash(bytes, 0, bytes.length), token);
+    }
+
+    private Name add(byte[] bytes, int hash, int token) {
+        if (count == names.length) names = Arrays.copyOf(names, count * 2);
+        if (count * 4 >= buckets.length * 3) rehash();
+        Name name = new Name(count, hash, token, bytes);
+        int bucket = hash & (buckets.length - 1);
+        name.next = buckets[bucket];
+        buckets[bucket] = name;
+        names[count++] = name;
+        return name;
+    }
+
+    private void rehash() {
+        buckets = new Name[buckets.length * 2];
+        for (int i = 0; i < count; i++) {
+            Name name = names[i];
+            int bucket = name.hash & (buckets.length - 1);
+            name.next = buckets[bucket];
+            buckets[bucket] = name;
+        }
+    }
+
+    private static int hash(byte[] buf, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) hash = hash(hash, buf[i]);
+        return hash;
+    }
+
+    private static boolean equals(byte[] bytes, byte[] buf, int offset, int length) {
+        if (bytes.length != length) return false;
+        for (int i = 0; i < length; i++)
+            if (bytes[i] != buf[offset + i]) return false;
+        return true;
+    }
+}
@@ -0,0 +1,281 @@
+package misc;
+
+import misc.Tree.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simplifies analyzed trees before they are generated:
+ * - folds the arithmetic operations and the comparisons of constants, and
+ * x + 0, 0 + x, x - 0, x * 1, 1 * x and x / 1,
+ * - replaces the variables never assigned and declared with a constant by
+ * the constant, and removes their declarations,
+ * - replaces an if with a constant condition by the branch taken, and a
+ * while with a false condition by unit.
+ * Operations are folded as the RISC processor computes them, on 32 bits.
+ * Divisions by zero are left to fail at run time, and constants too large
+ * to be loaded by an ImmediateItem are not folded.
+ * The trees given are not changed, the changed nodes are copied: the
+ * incremental analyzer shares its trees between versions.
+ */
+public class Optimizer implements Visitor, Tokens {
+
+    /**
+     * value of each constant variable
+     */
+    private final Map<Symbol, Integer> constants = new HashMap<>();
+
+    private Tree result;
+
+    /**
+     * number of nodes folded or removed
+     */
+    public int folded = 0;
+
+    public Tree optimize(Tree tree) {
+        if (tree == null) return null;
+        Tree backup = result;
+        result = tree;
+        tree.apply(this);
+        Tree optimized = result;
+        result = backup;
+        return optimized;
+    }
+
+    /**
+     * returns the optimized trees, trees itself if none has changed.
+     */
+    private Tree[] optimize(Tree[] trees) {
+        Tree[] optimized = trees;
+        for (int i = 0; i < trees.length; i++) {
+            Tree tree = optimize(trees[i]);
+            if (tree == trees[i]) continue;
+            if (optimized == trees) optimized = trees.clone();
+            optimized[i] = tree;
+        }
+        return optimized;
+    }
+
+    private static <T extends Tree> T typed(T tree, Type typ) {
+        tree.typ = typ;
+        return tree;
+    }
+
+    private IntLit constant(Tree tree, int value) {
+        folded++;
+        return typed(new IntLit(tree.pos, value), tree.typ);
+    }
+
+    private static boolean isConstant(Tree tree) {
+        return tree instanceof IntLit;
+    }
+
+    private static boolean isConstant(Tree tree, int value) {
+        return tree instanceof IntLit && ((IntLit) tree).value == value;
+    }
+
+    /**
+     * returns true if ImmediateItem.load can load the value.
+     */
+    private static boolean isLoadable(int value) {
+        return -32768 < value / 32768 && value / 32768 < 32768;
+    }
+
+    public void caseBad(Bad tree) {
+    }
+
+    public void caseProgram(Program tree) {
+        Tree[] decls = optimize(tree.decls);
+        Tree expr = optimize(tree.expr);
+        if (decls != tree.decls || expr != tree.expr)
+            result = typed(new Program(tree.pos, decls, expr), tree.typ);
+    }
+
+    public void caseFunDecl(FunDecl tree) {
+        Tree body = optimize(tree.body);
+        if (body == tree.body) return;
+        FunDecl decl = typed(new FunDecl(tree.pos, tree.name, tree.args, tree.result, body), tree.typ);
+        decl.sym = tree.sym;
+        result = decl;
+    }
+
+    public void caseVarDecl(VarDecl tree) {
+        Tree value = optimize(tree.value);
+        if (tree.sym != null && !tree.sym.assigned && isConstant(value))
+            constants.put(tree.sym, ((IntLit) value).value);
+        if (value == tree.value) return;
+        VarDecl decl = typed(new VarDecl(tree.pos, tree.name, tree.type, value), tree.typ);
+        decl.sym = tree.sym;
+        result = decl;
+    }
+
+    public void caseFormal(Formal tree) {
+    }
+
+    public void caseUnitType(UnitType tree) {
+    }
+
+    public void caseIntType(IntType tree) {
+    }
+
+    public void caseListType(ListType tree) {
+    }
+
+    public void caseFunType(FunType tree) {
+    }
+
+    public void caseExec(Exec tree) {
+        Tree expr = optimize(tree.expr);
+        if (expr != tree.expr) result = typed(new Exec(tree.pos, expr), tree.typ);
+    }
+
+    public void caseWhile(While tree) {
+        Tree cond = optimize(tree.cond);
+        if (isConstant(cond, 0)) {
+            folded++;
+            result = typed(new UnitLit(tree.pos), tree.typ);
+            return;
+        }
+        Tree body = optimize(tree.body);
+        if (cond != tree.cond || body != tree.body) result = typed(new While(tree.pos, cond, body), tree.typ);
+    }
+
+    public void caseIf(If tree) {
+        Tree cond = optimize(tree.cond);
+        if (isConstant(cond)) {
+            folded++;
+            result = optimize(((IntLit) cond).value != 0 ? tree.thenp : tree.elsep);
+            return;
+        }
+        Tree thenp = optimize(tree.thenp);
+        Tree elsep = optimize(tree.elsep);
+        if (cond != tree.cond || thenp != tree.thenp || elsep != tree.elsep)
+            result = typed(new If(tree.pos, cond, thenp, elsep), tree.typ);
+    }
+
+    public void caseAssign(Assign tree) {
+        Tree value = optimize(tree.value);
+        if (value == tree.value) return;
+        Assign assign = typed(new Assign(tree.pos, tree.name, value), tree.typ);
+        assign.sym = tree.sym;
+        result = assign;
+    }
+
+    public void caseIdent(Ident tree) {
+        Integer value = tree.sym == null ? null : constants.get(tree.sym);
+        if (value != null) result = constant(tree, value);
+    }
+
+    public void caseUnitLit(UnitLit tree) {
+    }
+
+    public void caseIntLit(IntLit tree) {
+    }
+
+    public void caseNilLit(NilLit tree) {
+    }
+
+    public void caseOperation(Operation tree) {
+        Tree left = optimize(tree.left);
+        Tree right = optimize(tree.right);
+        if (isConstant(left) && isConstant(right)) {
+            int x = ((IntLit) left).value;
+            int y = ((IntLit) right).value;
+            Integer value = fold(tree.operator, x, y);
+            if (value != null && isLoadable(value)) {
+                result = constant(tree, value);
+                return;
+            }
+        }
+        Tree identity = identity(tree.operator, left, right);
+        if (identity != null) {
+            folded++;
+            result = identity;
+        } else if (left != tree.left || right != tree.right) {
+            result = typed(new Operation(tree.pos, tree.operator, left, right), tree.typ);
+        }
+    }
+
+    /**
+     * returns the value of x operator y, null if it is not folded.
+     */
+    private static Integer fold(int operator, int x, int y) {
+        switch (operator) {
+            case PLUS:
+                return x + y;
+            case MINUS:
+                return x - y;
+            case MUL:
+                return x * y;
+            case DIV:
+                return y == 0 ? null : x / y;
+            case MOD:
+                return y == 0 ? null : x % y;
+            case EQU:
+                return x == y ? 1 : 0;
+            case NOTEQ:
+                return x != y ? 1 : 0;
+            case LESS:
+                return x < y ? 1 : 0;
+            case LESSOREQ:
+                return x <= y ? 1 : 0;
+            case GREATER:
+                return x > y ? 1 : 0;
+            case GREATEROREQ:
+                return x >= y ? 1 : 0;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * returns the operand equal to left operator right, null if there is none.
+     */
+    private static Tree identity(int operator, Tree left, Tree right) {
+        switch (operator) {
+            case PLUS:
+                return isConstant(right, 0) ? left : isConstant(left, 0) ? right : null;
+            case MINUS:
+                return isConstant(right, 0) ? left : null;
+            case MUL:
+                return isConstant(right, 1) ? left : isConstant(left, 1) ? right : null;
+            case DIV:
+                return isConstant(right, 1) ? left : null;
+            default:
+                return null;
+        }
+    }
+
+    public void caseFunCall(FunCall tree) {
+        Tree expression = optimize(tree.expression);
+        Tree[] args = optimize(tree.args);
+        if (expression != tree.expression || args != tree.args)
+            result = typed(new FunCall(tree.pos, expression, args), tree.typ);
+    }
+
+    public void caseBlock(Block tree) {
+        List<Tree> statements = new ArrayList<>();
+        boolean changed = false;
+        for (Tree statement : tree.statements) {
+            Tree optimized = optimize(statement);
+            changed |= optimized != statement;
+            if (optimized instanceof VarDecl && constants.containsKey(((VarDecl) optimized).sym)) {
+                // all its uses are replaced by its value
+                folded++;
+                changed = true;
+                continue;
+            }
+            statements.add(optimized);
+        }
+        Tree expression = optimize(tree.expression);
+        if (statements.isEmpty()) {
+            if (tree.statements.length > 0) folded++;
+            result = expression;
+        } else if (changed || expression != tree.expression) {
+            result = typed(new Block(tree.pos, Tree.toArray(statements), expression), tree.typ);
+        }
+    }
+}
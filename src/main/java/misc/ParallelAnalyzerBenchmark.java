@@ -0,0 +1,66 @@
+package misc;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * usage: java misc.ParallelAnalyzerBenchmark <options> [- [output]]
+ * Measures the analysis of programs of 1k, 10k and 100k declarations, with
+ * the bodies checked sequentially, then in parallel with 1, 2, 4, ...
+ * threads up to the number of cores.
+ */
+public class ParallelAnalyzerBenchmark extends Benchmark {
+
+    public static final int[] DECLARATIONS = {1000, 10000, 100000};
+
+    /**
+     * generates its own programs, the source is not used.
+     */
+    public void run(Global global) {
+        OutputStream out = global.openOutput(object);
+        PrintWriter writer = new PrintWriter(out, true);
+        measure(global, writer);
+        writer.close();
+        global.close(out);
+    }
+
+    public void measure(Global global, PrintWriter out) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        out.printf("%d cores%n", cores);
+        for (int n : DECLARATIONS) {
+            TokenBuffer tokens = program(global, n);
+            out.printf("%d declarations%n", n);
+            double sequential = measure(global, tokens, null);
+            report(out, "  sequential", sequential * 1e3, "ms");
+            for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                double parallel = measure(global, tokens, pool);
+                report(out, "  " + threads + " thread(s)", parallel * 1e3, "ms");
+                report(out, "    speedup", sequential / parallel, "x");
+                pool.shutdown();
+                if (threads == cores) break;
+            }
+        }
+    }
+
+    /**
+     * returns the best analysis time in seconds.
+     */
+    private double measure(Global global, TokenBuffer tokens, ForkJoinPool pool) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i <= runs; i++) {
+            Tree tree = new Parser(global, tokens).parse();
+            Analyzer analyzer = new Analyzer(global, pool);
+            Scope scope = analyzer.createGlobalScope();
+            long start = System.nanoTime();
+            analyzer.analyze(tree, scope);
+            if (i > 0) best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e9;
+    }
+
+    public static void main(String[] args) {
+        new ParallelAnalyzerBenchmark().run(args);
+    }
+}
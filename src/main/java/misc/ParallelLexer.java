@@ -0,0 +1,154 @@
+package misc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Lexes a source on several threads. Tokens never span lines (comments end
+ * at the end of the line, strings cannot contain newlines), so the input is
+ * split after newlines in chunks lexed independently, each with its own
+ * name table. The chunks are then relocated (line numbers and name indices)
+ * and concatenated.
+ */
+public class ParallelLexer implements Tokens {
+
+    /**
+     * minimal size of a chunk, smaller sources are lexed sequentially
+     */
+    public static final int CHUNK_SIZE = 1 << 20;
+
+    private final Global global;
+
+    private final ForkJoinPool pool;
+
+    private final int chunkSize;
+
+    public ParallelLexer(Global global) {
+        this(global, ForkJoinPool.commonPool());
+    }
+
+    public ParallelLexer(Global global, ForkJoinPool pool) {
+        this(global, pool, CHUNK_SIZE);
+    }
+
+    public ParallelLexer(Global global, ForkJoinPool pool, int chunkSize) {
+        this.global = global;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    public TokenBuffer scan(Source in) {
+        if (in instanceof Source.Buffer) return scan(((Source.Buffer) in).input());
+        return new TokenBuffer().scan(new Scanner(global, in));
+    }
+
+    public TokenBuffer scan(ByteBuffer input) {
+        List<Chunk> chunks = split(input);
+        if (chunks.size() == 1)
+            return new TokenBuffer().scan(new Scanner(global, new Source.Buffer(input)));
+
+        pool.invoke(new Task(chunks));
+
+        // relocate the chunks
+        int lines = 0;
+        int size = 0;
+        for (Chunk chunk : chunks) {
+            int[] names = new int[chunk.names.size()];
+            for (int i = 0; i < names.length; i++)
+                names[i] = global.names.enter(chunk.names.get(i)).index;
+            chunk.relocation = names;
+            chunk.lines = lines;
+            lines += chunk.scanner.line() - 1;
+            size += chunk.tokens.size() - 1;
+            chunk.reinitialize();
+        }
+        pool.invoke(new Task(chunks));
+
+        // concatenate the chunks, the EOF token of the last one included
+        TokenBuffer tokens = new TokenBuffer(size + 1);
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            int end = chunk.tokens.size() - (i < chunks.size() - 1 ? 1 : 0);
+            tokens.append(chunk.tokens, 0, end);
+            for (int j = 0; j < chunk.errors.size(); j++)
+                global.error(Position.shift(chunk.errorPositions.get(j), chunk.lines),
+                        chunk.errors.get(j));
+        }
+        return tokens;
+    }
+
+    /**
+     * splits the input in chunks of at least chunkSize bytes ending after a newline.
+     */
+    private List<Chunk> split(ByteBuffer input) {
+        List<Chunk> chunks = new ArrayList<>();
+        int start = input.position();
+        int end = input.limit();
+        while (start < end) {
+            int split = (int) Math.min(end, (long) start + chunkSize);
+            while (split < end && input.get(split - 1) != '\n') split++;
+            ByteBuffer chunk = input.duplicate();
+            chunk.position(start).limit(split);
+            chunks.add(new Chunk(chunk.slice()));
+            start = split;
+        }
+        if (chunks.isEmpty()) chunks.add(new Chunk(input));
+        return chunks;
+    }
+
+    /**
+     * Runs all the chunks in parallel.
+     */
+    @SuppressWarnings("serial")
+    private static class Task extends RecursiveAction {
+        private final List<Chunk> chunks;
+
+        Task(List<Chunk> chunks) {
+            this.chunks = chunks;
+        }
+
+        protected void compute() {
+            ForkJoinTask.invokeAll(chunks);
+        }
+    }
+
+    /**
+     * Chunk of the input. Lexed the first time it runs, relocated the second time.
+     */
+    @SuppressWarnings("serial")
+    private class Chunk extends RecursiveAction {
+        private final ByteBuffer input;
+        private final Names names;
+        private final List<Integer> errorPositions;
+        private final List<String> errors;
+        private Scanner scanner;
+        private TokenBuffer tokens;
+        private int lines;
+        private int[] relocation;
+
+        Chunk(ByteBuffer input) {
+            this.input = input;
+            this.names = new Names();
+            this.errorPositions = new ArrayList<>();
+            this.errors = new ArrayList<>();
+        }
+
+        protected void compute() {
+            if (tokens == null) {
+                scanner = new Scanner(global, new Source.Buffer(input), names) {
+                    protected void error(int position, String message) {
+                        errorPositions.add(position);
+                        errors.add(message);
+                    }
+                };
+                tokens = new TokenBuffer(input.remaining() / 3 + 1).scan(scanner);
+            } else {
+                tokens.relocate(lines, relocation);
+            }
+        }
+    }
+}
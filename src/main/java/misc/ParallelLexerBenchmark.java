@@ -0,0 +1,55 @@
+package misc;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * usage: java -Xmx4g misc.ParallelLexerBenchmark <options> [source]
+ * Measures the parallel lexer with 1, 2, 4, ... threads up to the number
+ * of cores, against the sequential scanner. The default generated program
+ * is 100 MB.
+ */
+public class ParallelLexerBenchmark extends Benchmark {
+
+    public ParallelLexerBenchmark() {
+        size = 100;
+    }
+
+    public void measure(Global global, PrintWriter out) {
+        ByteBuffer input = map(global);
+        double megabytes = input.remaining() / (double) (1 << 20);
+        TokenBuffer expected = new TokenBuffer().scan(new Scanner(global, new Source.Buffer(input)));
+        out.printf("%s: %.2f MB, %d tokens%n", source, megabytes, expected.size());
+        double sequential = time(() ->
+                new TokenBuffer().scan(new Scanner(global, new Source.Buffer(input))));
+        report(out, "sequential", megabytes / sequential, "MB/s");
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            ParallelLexer lexer = new ParallelLexer(global, pool);
+            if (!same(expected, lexer.scan(input))) out.println("different tokens!");
+            double parallel = time(() -> lexer.scan(input));
+            report(out, threads + " thread(s)", megabytes / parallel, "MB/s");
+            report(out, "  speedup", sequential / parallel, "x");
+            pool.shutdown();
+            if (threads == cores) break;
+        }
+    }
+
+    private ByteBuffer map(Global global) {
+        try (FileChannel channel = FileChannel.open(Paths.get(source), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    public static void main(String[] args) {
+        new ParallelLexerBenchmark().run(args);
+    }
+}
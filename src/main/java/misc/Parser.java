@@ -3,20 +3,96 @@ package misc;
 import misc.Tree.*;
 
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
 
-public class Parser extends Scanner {
+public class Parser implements Tokens {
 
-    private int nb_tokens = 0;
+    public final Global global;
+
+    /**
+     * tokens of the source
+     */
+    private final TokenStream tokens;
+
+    /**
+     * index of the current token
+     */
+    private int index;
+
+    /**
+     * current token, its position, name and value (see Scanner)
+     */
+    private int token;
+    private int start;
+    private Name name;
+    private int value;
 
     public Parser(Global global, InputStream in) {
-        super(global, in);
+        this(global, new Scanner(global, in));
+    }
+
+    public Parser(Global global, Source in) {
+        this(global, tokens(global, in));
+    }
+
+    public Parser(Global global, Scanner scanner) {
+        this(global, new TokenBuffer().scan(scanner));
+    }
+
+    public Parser(Global global, TokenStream tokens) {
+        this.global = global;
+        this.tokens = tokens;
+        reset(0);
+    }
+
+    /**
+     * returns the tokens of the source: scanned by a lexer thread while they
+     * are parsed with -pipeline, scanned before parsing otherwise.
+     */
+    static TokenStream tokens(Global global, Source in) {
+        if (global.pipeline) return new TokenRing(global, in);
+        if (global.parallel) return new ParallelLexer(global).scan(in);
+        return new TokenBuffer().scan(new Scanner(global, in));
+    }
+
+    /**
+     * returns the index of the current token, to come back to it with reset().
+     */
+    public int mark() {
+        return index;
+    }
+
+    public void reset(int mark) {
+        index = mark;
+        token = tokens.kind(index);
+        start = tokens.position(index);
+        value = tokens.value(index);
+        name = (token == IDENT || token == STRING) ? global.names.get(value) : null;
+    }
+
+    private void nextToken() {
+        if (token != EOF) reset(index + 1);
+    }
+
+    /**
+     * returns the kind of the n-th token after the current one.
+     */
+    private int peek(int n) {
+        return tokens.kind(index + n);
+    }
+
+    private String representation() {
+        String representation = Scanner.tokenClass(token);
+        if (token == IDENT || token == STRING) representation += "(" + name + ")";
+        if (token == NUMBER) representation += "(" + value + ")";
+        return representation;
     }
 
     private Error error(int expected) {
-        return error("token of class " + tokenClass(expected));
+        return error("token of class " + Scanner.tokenClass(expected));
     }
 
     private Error error(String expected) {
@@ -29,7 +105,6 @@ public class Parser extends Scanner {
     private boolean acceptIf(int expected) {
         if (token == expected) {
             nextToken();
-            nb_tokens++;
             return true;
         } else {
             return false;
@@ -41,7 +116,46 @@ public class Parser extends Scanner {
     }
 
     public Tree parse() {
-        return parseProgram();
+        Events.Phase event = Events.phase("Parser.parse");
+        Tree tree;
+        try {
+            tree = parseProgram();
+        } finally {
+            if (tokens instanceof TokenRing) ((TokenRing) tokens).close();
+        }
+        if (event != null && event.shouldCommit()) {
+            event.source = global.source;
+            event.nodes = new TreeCounter().count(tree).nodes;
+            event.commit();
+        }
+        return tree;
+    }
+
+    /**
+     * returns the position of the current token.
+     */
+    public int position() {
+        return start;
+    }
+
+    /**
+     * Parses the program one declaration at a time: returns the next
+     * declaration, or null when the main expression follows.
+     */
+    public Tree parseNextDeclaration() {
+        if (token != DEF) return null;
+        Tree decl = parseDeclaration();
+        accept(SEMICOLON);
+        return decl;
+    }
+
+    /**
+     * parses the main expression, which ends the program.
+     */
+    public Tree parseMain() {
+        Tree main = parseExpression();
+        accept(EOF);
+        return main;
     }
 
     /**
@@ -51,14 +165,11 @@ public class Parser extends Scanner {
         int pos = start;
         List list = new LinkedList();
 
-        while (token == DEF) {
-            list.add(parseDeclaration());
-            accept(SEMICOLON);
-        }
-        Tree main = parseExpression();
-        Tree[] funs = Tree.toArray(list);
-        accept(EOF);
-        return new Program(pos, funs, main);
+        Tree decl;
+        while ((decl = parseNextDeclaration()) != null)
+            list.add(decl);
+        Tree main = parseMain();
+        return new Program(pos, Tree.toArray(list), main);
     }
 
 
@@ -72,7 +183,7 @@ public class Parser extends Scanner {
         Tree[] args = Tree.toArray(list);
 
         accept(DEF);
-        String name = chars;
+        Name name = this.name;
         accept(IDENT);
         accept(LPAREN);
         if (token == IDENT) {
@@ -109,7 +220,7 @@ public class Parser extends Scanner {
 
     private Tree parseFormal() {
         int pos = start;
-        String name = chars;
+        Name name = this.name;
         accept(IDENT);
         accept(COLON);
         Tree type = parseType();
@@ -230,29 +341,17 @@ public class Parser extends Scanner {
                 expressionT = new If(pos, cond, thenp, elsep);
                 break;
 
-//replacing sub-expression :
-            /*
-             * Expression     = "if" "(" Expression ")" Expression [ "else" Expression]
-             *                | OrExpression ["=" Expression]
-             */
-/*                case IDENT:case NUMBER:case STRING:case LBRACK:case NOT:
-                case HEAD:case TAIL:case ISEMPTY:case LPAREN:case LBRACE:case MINUS:
-                    expressionT = parseOrExpression();
-                    if(token==AFFECT) {
-                        if(expressionT instanceof Tree.Ident){
-                            accept(AFFECT);
-                            expressionT= new Assign(pos,((Ident)expressionT).name,parseExpression());
-                        }
-                        else{
-                            error("Expression");
-                        }
-                    }
-                    break;*/
-
-
-//with token counter:
-
             case IDENT:
+                if (peek(1) != AFFECT) {
+                    expressionT = parseOrExpression();
+                    if (token == AFFECT) error("Expression");
+                    break;
+                }
+                Name name = this.name;
+                accept(IDENT);
+                accept(AFFECT);
+                expressionT = new Assign(pos, name, parseExpression());
+                break;
             case NUMBER:
             case STRING:
             case LBRACK:
@@ -263,20 +362,8 @@ public class Parser extends Scanner {
             case LPAREN:
             case LBRACE:
             case MINUS:
-                if (token == IDENT) {
-                    int temp = nb_tokens;
-                    expressionT = parseOrExpression();
-                    if (token == AFFECT) {
-                        if (nb_tokens == temp + 1) {
-                            accept(AFFECT);
-                            expressionT = new Assign(pos, ((Ident) expressionT).name, parseExpression());
-                        } else {
-                            error("Expression");
-                        }
-                    }
-                } else {
-                    expressionT = parseOrExpression();
-                }
+                expressionT = parseOrExpression();
+                if (token == AFFECT) error("Expression");
                 break;
             default:
                 error("Expression");
@@ -285,202 +372,128 @@ public class Parser extends Scanner {
     }
 
     /**
-     * OrExpression   = AndExpression
-     * | OrExpression "|" AndExpression.
-     * <p>
      * OrExpression   = AndExpression {"|" AndExpression}
-     */
-    private Tree parseOrExpression() {
-        int pos = start;
-        Tree orexpression2 = null;
-        Tree True = new IntLit(pos, 1);
-
-        Tree orexpressionT = parseAndExpression();
-        while (acceptIf(OR)) {
-            orexpression2 = parseAndExpression();
-            orexpressionT = new If(pos, orexpressionT, True, orexpression2);
-        }
-        return orexpressionT;
-    }
-
-    /* AndExpression  = CmpExpression
-     *                | AndExpression "&" CmpExpression.
-     *
      * AndExpression  = CmpExpression {"&" CmpExpression}
-     *
+     * CmpExpression  = ListExpression [ CompOp ListExpression ]
+     * ListExpression = SumExpression ["::" ListExpression]
+     * SumExpression  = Term {SumOp Term}
+     * Term           = ["-"] Factor {ProdOp ["-"] Factor}
+     * <p>
+     * The binary operators are parsed by precedence climbing on explicit
+     * stacks (see PRECEDENCES), so that long chains do not recurse. Each
+     * operation is positioned at the start of its left operand.
+     * a | b = If(a, 1, b) and a & b = If(a, b, 0).
      */
-    private Tree parseAndExpression() {
-        int pos = start;
-        Tree andexpression2 = null;
-        Tree False = new IntLit(pos, 0);
-
-        Tree andexpressionT = parseCmpExpression();
-        while (acceptIf(AND)) {
-            andexpression2 = parseCmpExpression();
-            andexpressionT = new If(pos, andexpressionT, andexpression2, False);
+    private Tree parseOrExpression() {
+        int base = operatorCount;
+        int first = start;
+        pushOperand(parseOperand(first), first);
+        while (true) {
+            int operator = token;
+            int precedence = precedence(operator);
+            if (precedence == 0) break;
+            boolean left = operator != CONS && precedence != CMP_PRECEDENCE;
+            while (operatorCount > base &&
+                    precedence(operators[operatorCount - 1]) >= precedence + (left ? 0 : 1))
+                reduce();
+            // comparisons are not associative
+            if (precedence == CMP_PRECEDENCE && operatorCount > base &&
+                    precedence(operators[operatorCount - 1]) == CMP_PRECEDENCE) break;
+            nextToken();
+            pushOperator(operator);
+            int term = operandStarts[operandCount - 1];
+            int operand = start;
+            pushOperand(parseOperand(isProdOp(operator) ? term : operand), operand);
         }
-        return andexpressionT;
+        while (operatorCount > base) reduce();
+        return operands[--operandCount];
     }
 
-    /* CmpExpression  = ListExpression [ CompOp ListExpression ].
+    /**
+     * Operand = [ "-" ] Factor.
+     * The negation is positioned at pos, the start of the term.
      */
-    private Tree parseCmpExpression() {
-        int pos = start;
-        int opT = 0;
-        Tree expression2 = null;
-
-        Tree cmpT = parseListExpression();
-        if (token == EQU || token == NOTEQ || token == LESS || token == GREATER
-                || token == LESSOREQ || token == GREATEROREQ) {
-            opT = parseCompOp();
-            expression2 = parseListExpression();
-            cmpT = new Operation(pos, opT, cmpT, expression2);
-        }
-        return cmpT;
+    private Tree parseOperand(int pos) {
+        if (acceptIf(MINUS))
+            return new Operation(pos, MINUS, new IntLit(pos, 0), parseFactor());
+        return parseFactor();
     }
 
-    /* CompOp         = "==" | "!=" | "<" | ">" | "<=" | ">=".
+    /**
+     * CompOp = "==" | "!=" | "<" | ">" | "<=" | ">=".
+     * SumOp  = "+" | "-".
+     * ProdOp = "*" | "/" | "%".
      */
-    private int parseCompOp() {
-        int compOp = 0;
-        switch (token) {
-            case EQU:
-                accept(EQU);
-                compOp = EQU;
-                break;
-            case NOTEQ:
-                accept(NOTEQ);
-                compOp = NOTEQ;
-                break;
-            case LESS:
-                accept(LESS);
-                compOp = LESS;
-                break;
-            case GREATER:
-                accept(GREATER);
-                compOp = GREATER;
-                break;
-            case LESSOREQ:
-                accept(LESSOREQ);
-                compOp = LESSOREQ;
-                break;
-            case GREATEROREQ:
-                accept(GREATEROREQ);
-                compOp = GREATEROREQ;
-                break;
-            default:
-                error("CompOp");
-        }
-        return compOp;
+    private static final int[] PRECEDENCES = new int[FALSE + 1];
+
+    private static final int CMP_PRECEDENCE = 3;
+
+    static {
+        PRECEDENCES[OR] = 1;
+        PRECEDENCES[AND] = 2;
+        PRECEDENCES[EQU] = PRECEDENCES[NOTEQ] = CMP_PRECEDENCE;
+        PRECEDENCES[LESS] = PRECEDENCES[GREATER] = CMP_PRECEDENCE;
+        PRECEDENCES[LESSOREQ] = PRECEDENCES[GREATEROREQ] = CMP_PRECEDENCE;
+        PRECEDENCES[CONS] = 4;
+        PRECEDENCES[PLUS] = PRECEDENCES[MINUS] = 5;
+        PRECEDENCES[MUL] = PRECEDENCES[DIV] = PRECEDENCES[MOD] = 6;
     }
 
-    /* ListExpression = SumExpression
-     *                | SumExpression "::" ListExpression.
-     *
-     * ListExpression = SumExpression ["::" ListExpression]
+    /**
+     * returns the precedence of a binary operator, 0 for other tokens.
      */
-    private Tree parseListExpression() {
-        int pos = start;
-
-        Tree listExpressionT = parseSumExpression();
-        if (acceptIf(CONS)) {
-            listExpressionT = new Operation(pos, CONS, listExpressionT, parseListExpression());
-        }
-        return listExpressionT;
+    private static int precedence(int token) {
+        return token >= 0 && token < PRECEDENCES.length ? PRECEDENCES[token] : 0;
     }
 
-    /* SumExpression  = Term
-     *                | SumExpression SumOp Term.
-     *
-     * SumExpression = Term {SumOp Term}
-     */
-    private Tree parseSumExpression() {
-        int pos = start;
-        Tree expression2 = null;
-        int op = 0;
-
-        Tree sumT = parseTerm();
-        while (token == PLUS || token == MINUS) {
-            op = parseSumOp();
-            expression2 = parseTerm();
-            sumT = new Operation(pos, op, sumT, expression2);
-        }
-        return sumT;
+    private static boolean isProdOp(int token) {
+        return token == MUL || token == DIV || token == MOD;
     }
 
-    /* SumOp          = "+" | "-".
+    /**
+     * stacks of the binary expressions being parsed
      */
-    private int parseSumOp() {
-
-        int sumOpT = 0;
-        switch (token) {
-            case PLUS:
-                accept(PLUS);
-                sumOpT = PLUS;
-                break;
-            case MINUS:
-                accept(MINUS);
-                sumOpT = MINUS;
-                break;
-            default:
-                error("parseSumOp");
+    private Tree[] operands = new Tree[16];
+    private int[] operandStarts = new int[16];
+    private int operandCount;
+    private int[] operators = new int[16];
+    private int operatorCount;
+
+    private void pushOperand(Tree operand, int start) {
+        if (operandCount == operands.length) {
+            operands = Arrays.copyOf(operands, operandCount * 2);
+            operandStarts = Arrays.copyOf(operandStarts, operandCount * 2);
         }
-        return sumOpT;
+        operands[operandCount] = operand;
+        operandStarts[operandCount++] = start;
     }
 
-    /* Term           = [ "-" ] Factor
-     *                | Term ProdOp [ "-" ] Factor.
-     *
-     *  Term       = ["-"] Factor {ProdOp ["-"] Factor}
-     *
-     */
-    private Tree parseTerm() {
-        int pos = start;
-        Tree termT = null;
-        Tree right = null;
-        int op = 0;
-
-        if (token == MINUS) {
-            accept(MINUS);
-            termT = new Operation(pos, MINUS, new IntLit(pos, 0), parseFactor());
-        } else {
-            termT = parseFactor();
-        }
-        while (token == MUL || token == DIV || token == MOD) {
-            op = parseProdOp();
-            if (token == MINUS) {
-                accept(MINUS);
-                right = new Operation(pos, MINUS, new IntLit(pos, 0), parseFactor());
-            } else {
-                right = parseFactor();
-            }
-            termT = new Operation(pos, op, termT, right);
-        }
-        return termT;
+    private void pushOperator(int operator) {
+        if (operatorCount == operators.length)
+            operators = Arrays.copyOf(operators, operatorCount * 2);
+        operators[operatorCount++] = operator;
     }
 
-    /* ProdOp         = "*" | "/" | "%".
+    /**
+     * replaces the two operands on top of the stack by their operation.
      */
-    private int parseProdOp() {
-        int prodOp = 0;
-        switch (token) {
-            case MUL:
-                accept(MUL);
-                prodOp = MUL;
-                break;
-            case DIV:
-                accept(DIV);
-                prodOp = DIV;
-                break;
-            case MOD:
-                accept(MOD);
-                prodOp = MOD;
+    private void reduce() {
+        int operator = operators[--operatorCount];
+        Tree right = operands[--operandCount];
+        Tree left = operands[--operandCount];
+        int pos = operandStarts[operandCount];
+        Tree operation;
+        switch (operator) {
+            case OR:
+                operation = new If(pos, left, new IntLit(pos, 1), right);
+                break;
+            case AND:
+                operation = new If(pos, left, right, new IntLit(pos, 0));
                 break;
             default:
-                error("ProdOp");
+                operation = new Operation(pos, operator, left, right);
         }
-
-        return prodOp;
+        pushOperand(operation, pos);
     }
 
     /* Factor         = ident
@@ -519,16 +532,16 @@ public class Parser extends Scanner {
 
         switch (token) {
             case IDENT:
-                factorT = new Ident(pos, chars);
+                factorT = new Ident(pos, name);
                 accept(IDENT);
                 break;
             case NUMBER:
-                factorT = new IntLit(pos, Integer.parseInt(chars));
+                factorT = new IntLit(pos, value);
                 accept(NUMBER);
                 break;
             case STRING:
                 Tree stringT = new NilLit(pos);
-                char[] code = chars.toCharArray();
+                char[] code = name.toString().toCharArray();
                 for (int i = code.length - 1; i >= 0; i--) {
                     stringT = new Operation(pos, CONS, new IntLit(pos, (int) code[i]), stringT);
                 }
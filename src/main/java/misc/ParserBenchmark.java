@@ -0,0 +1,35 @@
+package misc;
+
+import java.io.PrintWriter;
+
+/**
+ * usage: java misc.ParserBenchmark <options> [source]
+ * Measures the lexing pass into a token buffer, the parser reading the
+ * buffer, and the memory held per token.
+ */
+public class ParserBenchmark extends Benchmark {
+
+    public void measure(Global global, PrintWriter out) {
+        TokenBuffer tokens = scan(global);
+        int size = tokens.size();
+        out.printf("%s: %d tokens%n", source, size);
+        report(out, "scan", size / time(() -> scan(global)) / 1e6, "Mtokens/s");
+        report(out, "parse (token buffer)", size / time(() ->
+                new Parser(global, tokens).parse()) / 1e6, "Mtokens/s");
+        report(out, "scan + parse", size / time(() ->
+                new Parser(global, scan(global)).parse()) / 1e6, "Mtokens/s");
+        report(out, "bytes per token (used)", 3.0 * Integer.BYTES, "bytes");
+        report(out, "bytes per token (held)", tokens.bytes() / (double) size, "bytes");
+    }
+
+    private TokenBuffer scan(Global global) {
+        Source in = global.openSource(source);
+        TokenBuffer tokens = new TokenBuffer().scan(new Scanner(global, in));
+        global.close(in);
+        return tokens;
+    }
+
+    public static void main(String[] args) {
+        new ParserBenchmark().run(args);
+    }
+}
@@ -0,0 +1,39 @@
+package misc;
+
+import java.io.PrintWriter;
+import java.util.function.Function;
+
+/**
+ * usage: java misc.PipelineBenchmark <options> [source]
+ * Measures the front end latency (scan and parse) of the source: scanned
+ * before parsing, scanned on demand by the parser thread, and scanned by
+ * a lexer thread in a token ring.
+ */
+public class PipelineBenchmark extends Benchmark {
+
+    public void measure(Global global, PrintWriter out) {
+        out.printf("%s: %d cores%n", source, Runtime.getRuntime().availableProcessors());
+        double buffer = measure(global, out, "scan then parse", in ->
+                new TokenBuffer().scan(new Scanner(global, in)));
+        double window = measure(global, out, "fused", in ->
+                new TokenWindow(new Scanner(global, in)));
+        double ring = measure(global, out, "pipeline", in -> new TokenRing(global, in));
+        report(out, "pipeline speedup vs scan then parse", buffer / ring, "x");
+        report(out, "pipeline speedup vs fused", window / ring, "x");
+    }
+
+    private double measure(Global global, PrintWriter out, String label,
+                           Function<Source, TokenStream> tokens) {
+        double time = time(() -> {
+            Source in = global.openSource(source);
+            new Parser(global, tokens.apply(in)).parse();
+            global.close(in);
+        });
+        report(out, label, time * 1e3, "ms");
+        return time;
+    }
+
+    public static void main(String[] args) {
+        new PipelineBenchmark().run(args);
+    }
+}
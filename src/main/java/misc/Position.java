@@ -16,6 +16,13 @@ public final class Position {
         return (line << columnBits) | (col & columnMask);
     }
 
+    /**
+     * moves a defined position the given number of lines down.
+     */
+    public static int shift(int pos, int lines) {
+        return pos == UNDEFINED ? pos : pos + (lines << columnBits);
+    }
+
     public static int line(int pos) {
         return pos >>> columnBits;
     }
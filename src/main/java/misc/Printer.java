@@ -4,10 +4,15 @@ import misc.Tree.*;
 
 import java.io.PrintWriter;
 
-public class Printer implements Visitor {
+public class Printer implements Visitor, TreeArena.Visitor {
 
     private final PrintWriter out;
 
+    /**
+     * arena of the nodes printed by index
+     */
+    private TreeArena arena;
+
     private String step;
 
     private int level;
@@ -32,6 +37,32 @@ public class Printer implements Visitor {
         return this;
     }
 
+    /**
+     * prints the node of the arena, without building its tree.
+     */
+    public Printer print(TreeArena arena, int node) {
+        TreeArena backup = this.arena;
+        this.arena = arena;
+        arena.apply(node, this);
+        this.arena = backup;
+        return this;
+    }
+
+    /**
+     * prints the node and its next siblings, separated by commas.
+     */
+    private Printer printAll(int node) {
+        for (int first = node; node != TreeArena.NONE; node = arena.next(node)) {
+            if (node != first) print(", ");
+            print(arena, node);
+        }
+        return this;
+    }
+
+    public Printer print(Name name) {
+        return print(name.toString());
+    }
+
     public Printer print(int value) {
         return print(String.valueOf(value));
     }
@@ -227,4 +258,132 @@ public class Printer implements Visitor {
         print(tree.expression);
         print("(").print(tree.args).print(")");
     }
+
+    // nodes of an arena, printed as their trees
+
+    public void caseBad(int node) {
+        print("<<bad>>");
+    }
+
+    public void caseProgram(int node) {
+        int expr = arena.first(node);
+        for (int decl = arena.next(expr); decl != TreeArena.NONE; decl = arena.next(decl)) {
+            if (decl != arena.next(expr)) println();
+            print(arena, decl).print(";");
+            println();
+        }
+        print(arena, expr);
+    }
+
+    public void caseFunDecl(int node) {
+        int result = arena.first(node);
+        int body = arena.next(result);
+        print("def ").print(arena.name(node)).print("(").printAll(arena.next(body)).print(")").
+                print(": ").print(arena, result).print(" =");
+        indent();
+        println().print(arena, body);
+        undent();
+    }
+
+    public void caseVarDecl(int node) {
+        int type = arena.first(node);
+        print("var ").print(arena.name(node)).print(": ").print(arena, type).
+                print(" = ").indent().print(arena, arena.next(type)).undent();
+    }
+
+    public void caseFormal(int node) {
+        print(arena.name(node)).print(": ").print(arena, arena.first(node));
+    }
+
+    public void caseUnitType(int node) {
+        print("Unit");
+    }
+
+    public void caseIntType(int node) {
+        print("Int");
+    }
+
+    public void caseListType(int node) {
+        print("List[").print(arena, arena.first(node)).print("]");
+    }
+
+    public void caseFunType(int node) {
+        int result = arena.first(node);
+        print("(").printAll(arena.next(result)).print(") ").print(arena, result);
+    }
+
+    public void caseExec(int node) {
+        print(arena, arena.first(node));
+    }
+
+    public void caseWhile(int node) {
+        int cond = arena.first(node);
+        print("while (").indent().print(arena, cond).undent().print(")");
+        indent();
+        println().print(arena, arena.next(cond));
+        undent();
+    }
+
+    public void caseIf(int node) {
+        int cond = arena.first(node);
+        int thenp = arena.next(cond);
+        print("if (").indent().print(arena, cond).undent().print(")");
+        indent();
+        println().print(arena, thenp);
+        undent();
+        println().print("else");
+        indent();
+        println().print(arena, arena.next(thenp));
+        undent();
+    }
+
+    public void caseAssign(int node) {
+        print(arena.name(node)).print(" = ").indent().print(arena, arena.first(node)).undent();
+    }
+
+    public void caseIdent(int node) {
+        print(arena.name(node));
+    }
+
+    public void caseUnitLit(int node) {
+        print("()");
+    }
+
+    public void caseIntLit(int node) {
+        print(arena.value(node));
+    }
+
+    public void caseNilLit(int node) {
+        print("[]");
+    }
+
+    public void caseOperation(int node) {
+        String operator = Scanner.tokenClass(arena.value(node));
+        int left = arena.first(node);
+        int right = arena.next(left);
+        if (right == TreeArena.NONE) {
+            print(operator);
+            print("(").indent().print(arena, left).undent().print(")");
+        } else {
+            print("(").indent().print(arena, left).undent().print(")");
+            print(" ").print(operator).print(" ");
+            print("(").indent().print(arena, right).undent().print(")");
+        }
+    }
+
+    public void caseBlock(int node) {
+        int expression = arena.first(node);
+        print("{").indent();
+        for (int statement = arena.next(expression); statement != TreeArena.NONE; statement = arena.next(statement)) {
+            println().print(arena, statement).print(";");
+        }
+        println().print(arena, expression).undent();
+        println().print("}");
+    }
+
+    public void caseFunCall(int node) {
+        int expression = arena.first(node);
+        print(arena, expression);
+        print("(").printAll(arena.next(expression)).print(")");
+    }
 }
@@ -1,17 +1,40 @@
 package misc;
 
-import java.io.InputStream;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 
 /**
  * usage: java misc.PrinterTest <options> [source [objet]]
+ * options :
+ * -arena Print the nodes of a TreeArena
  */
 public class PrinterTest extends AbstractMain implements Tokens {
 
-    public void run(Global global, InputStream in, PrintWriter out) {
+    public boolean arena = false;
+
+    public void run(Global global, Source in, PrintWriter out) {
         Parser parser = new Parser(global, in);
         Printer printer = new Printer(out);
-        printer.print(parser.parse()).println();
+        if (arena) {
+            TreeArena nodes = new TreeArena(global.names);
+            printer.print(nodes, nodes.parse(parser)).println();
+        } else {
+            printer.print(parser.parse()).println();
+        }
+    }
+
+    public int handleOption(String[] args, int i) {
+        if (args[i].equals("-arena")) {
+            arena = true;
+            return 1;
+        } else {
+            return super.handleOption(args, i);
+        }
+    }
+
+    public void printHelp(PrintStream out) {
+        super.printHelp(out);
+        out.println("  -arena    Prints the nodes of a TreeArena");
     }
 
     public static void main(String[] args) {
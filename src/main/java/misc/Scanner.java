@@ -2,10 +2,11 @@ package misc;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 public class Scanner implements Tokens {
 
-    private static final char EOF_CH = (char) -1;
+    private static final int EOF_CH = Source.EOF;
 
     public final Global global;
 
@@ -20,19 +21,34 @@ public class Scanner implements Tokens {
     public int start;
 
     /**
-     * current token representation (valid only if multiple representations are possible)
+     * current token representation (valid only for strings)
      */
     public String chars;
 
     /**
-     * buffer to create tokens
+     * current name (valid only for identifiers and strings)
      */
-    private StringBuffer buf;
+    public Name name;
+
+    /**
+     * current value (valid only for numbers)
+     */
+    public int value;
+
+    /**
+     * table of names, keywords included
+     */
+    private final Names names;
+
+    /**
+     * buffer to create names and strings
+     */
+    private byte[] buf;
 
     /**
      * current char
      */
-    private char ch;
+    private int ch;
 
     /**
      * line and column of current char
@@ -43,17 +59,21 @@ public class Scanner implements Tokens {
     /**
      * input
      */
-    private final InputStream in;
-
-    /**
-     * used by nextCh()
-     */
-    private char oldch;
+    private final Source in;
 
     public Scanner(Global global, InputStream in) {
+        this(global, new Source.Stream(in));
+    }
+
+    public Scanner(Global global, Source in) {
+        this(global, in, global.names);
+    }
+
+    public Scanner(Global global, Source in, Names names) {
         this.global = global;
         this.in = in;
-        this.buf = new StringBuffer();
+        this.names = names;
+        this.buf = new byte[64];
         nextCh();
         nextToken();
     }
@@ -85,7 +105,6 @@ public class Scanner implements Tokens {
 
     private int readToken() {
         int token = 0;
-        buf.setLength(0);
         switch (ch) {
             case ',':
                 token = COMMA;
@@ -193,11 +212,16 @@ public class Scanner implements Tokens {
             case '7':
             case '8':
             case '9':
+                long number = 0;
                 do {
-                    buf.append(ch);
+                    number = number * 10 + (ch - '0');
+                    if (number > Integer.MAX_VALUE) {
+                        error(start, "number too large");
+                        number = 0;
+                    }
                     nextCh();
                 } while (ch >= '0' && ch <= '9');
-                chars = buf.toString();
+                value = (int) number;
                 token = NUMBER;
                 break;
             //variables and tokens
@@ -253,39 +277,35 @@ public class Scanner implements Tokens {
             case 'X':
             case 'Y':
             case 'Z':
+                int length = 0;
+                int hash = 0;
                 do {
-                    buf.append(ch);
+                    if (length == buf.length) buf = Arrays.copyOf(buf, length * 2);
+                    buf[length++] = (byte) ch;
+                    hash = Names.hash(hash, ch);
                     nextCh();
                 } while (('0' <= ch && ch <= '9') ||
                         ('a' <= ch && ch <= 'z') ||
                         ('A' <= ch && ch <= 'Z') || (ch == '_'));
-                chars = buf.toString();
-                if (chars.equals("if")) token = IF;
-                else if (chars.equals("else")) token = ELSE;
-                else if (chars.equals("Int")) token = INT;
-                else if (chars.equals("List")) token = LIST;
-                else if (chars.equals("head")) token = HEAD;
-                else if (chars.equals("tail")) token = TAIL;
-                else if (chars.equals("isEmpty")) token = ISEMPTY;
-                else if (chars.equals("Unit")) token = UNIT;
-                else if (chars.equals("var")) token = VAR;
-                else if (chars.equals("while")) token = WHILE;
-                else if (chars.equals("def")) token = DEF;
-                else if (chars.equals("true")) token = TRUE;
-                else if (chars.equals("false")) token = FALSE;
-                else token = IDENT;
+                name = names.enter(buf, 0, length, hash);
+                token = name.token;
                 break;
             //String
             case '\"':
                 nextCh();
+                length = 0;
+                hash = 0;
                 while (ch != '\n' && ch != '\"' && ch != EOF_CH) {
-                    buf.append(ch);
+                    if (length == buf.length) buf = Arrays.copyOf(buf, length * 2);
+                    buf[length++] = (byte) ch;
+                    hash = Names.hash(hash, ch);
                     nextCh();
                 }
-                chars = buf.toString();
-                if (ch == '\"') token = STRING;
-                else throw new Error("Unknown token " + token);
-                nextCh();
+                name = names.enter(buf, 0, length, hash);
+                chars = name.toString();
+                token = STRING;
+                if (ch == '\"') nextCh();
+                else error(start, "unterminated string");
                 break;
             case EOF_CH:
                 token = EOF;
@@ -297,10 +317,22 @@ public class Scanner implements Tokens {
         return token;
     }
 
+    /**
+     * returns the line of the current char.
+     */
+    public int line() {
+        return line;
+    }
+
+    protected void error(int position, String message) {
+        global.error(position, message);
+    }
+
     public String representation() {
         String representation = tokenClass(token);
-        if (token == NUMBER || token == IDENT || token == STRING)
-            representation += "(" + chars + ")";
+        if (token == IDENT) representation += "(" + name + ")";
+        if (token == NUMBER) representation += "(" + value + ")";
+        if (token == STRING) representation += "(" + chars + ")";
         return representation;
     }
 
@@ -414,9 +446,7 @@ public class Scanner implements Tokens {
                 column++;
         }
         try {
-            ch = (char) in.read();
-            oldch = ((oldch == '\r') && (ch == '\n')) ? (char) in.read() : ch;
-            ch = (oldch == '\r') ? '\n' : oldch;
+            ch = in.read();
         } catch (IOException exception) {
             global.fatal(Position.encode(line, column), exception);
         }
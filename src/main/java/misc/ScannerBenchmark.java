@@ -0,0 +1,43 @@
+package misc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * usage: java misc.ScannerBenchmark <options> [source]
+ * Measures the scanner throughput with the different sources: unbuffered
+ * stream (one read per character), buffered stream and memory mapped file.
+ */
+public class ScannerBenchmark extends Benchmark implements Tokens {
+
+    public void measure(Global global, PrintWriter out) {
+        double megabytes = new File(source).length() / (double) (1 << 20);
+        out.printf("%s: %.2f MB%n", source, megabytes);
+        report(out, "unbuffered stream", megabytes / time(() ->
+                scan(global, new Source.Stream(open(global), 1))), "MB/s");
+        report(out, "buffered stream", megabytes / time(() ->
+                scan(global, new Source.Stream(open(global)))), "MB/s");
+        report(out, "memory mapped", megabytes / time(() ->
+                scan(global, global.openSource(source))), "MB/s");
+    }
+
+    private FileInputStream open(Global global) {
+        try {
+            return new FileInputStream(source);
+        } catch (IOException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    private void scan(Global global, Source in) {
+        Scanner scanner = new Scanner(global, in);
+        while (scanner.token != EOF) scanner.nextToken();
+        global.close(in);
+    }
+
+    public static void main(String[] args) {
+        new ScannerBenchmark().run(args);
+    }
+}
@@ -1,6 +1,5 @@
 package misc;
 
-import java.io.InputStream;
 import java.io.PrintWriter;
 
 /**
@@ -8,7 +7,7 @@ import java.io.PrintWriter;
  */
 class ScannerTest extends AbstractMain implements Tokens {
 
-    public void run(Global global, InputStream in, PrintWriter out) {
+    public void run(Global global, Source in, PrintWriter out) {
         Scanner scanner = new Scanner(global, in);
         while (scanner.token != EOF) {
             out.println(scanner.representation());
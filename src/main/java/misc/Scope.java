@@ -1,32 +1,80 @@
 package misc;
 
 public final class Scope {
+
+    /**
+     * scopes of at most SMALL symbols are searched along their list,
+     * larger ones through an open addressing table
+     */
+    private static final int SMALL = 4;
+
     private final Global global;
 
     private final Scope outer;
 
+    /**
+     * for a view, the scope whose first size symbols are visible
+     */
+    private final Scope base;
+    private final int size;
+
+    /**
+     * symbols of the scope, the last entered first
+     */
     public Symbol first;
 
+    private int count;
+
+    /**
+     * last entered symbol of each name, null for small scopes
+     */
+    private Symbol[] table;
+
     public Scope(Global global) {
         this.global = global;
         this.outer = null;
+        this.base = null;
+        this.size = 0;
     }
 
     public Scope(Scope outer) {
         this.global = outer.global;
         this.outer = outer;
+        this.base = null;
+        this.size = 0;
+    }
+
+    private Scope(Scope scope, int size) {
+        this.global = scope.global;
+        this.outer = scope.outer;
+        this.base = scope;
+        this.size = size;
+    }
+
+    /**
+     * returns a read only view of the symbols entered so far in this scope
+     * and of the next one. The symbols entered later are not visible.
+     */
+    public Scope view() {
+        if (base != null) throw new Error("view of a view");
+        return new Scope(this, count + 1);
     }
 
     public void enter(Symbol symbol) {
+        if (base != null) throw new Error("symbol entered in a view");
         Symbol other = lookupLocal(symbol.name);
         if (other != null)
             global.error(symbol.pos, symbol.name + " already defined in line " +
                     Position.line(other.pos));
         symbol.next = first;
+        symbol.index = count;
         first = symbol;
+        count++;
+        if (table != null && count * 2 <= table.length) table[slot(symbol.name)] = symbol;
+        else if (count > SMALL) rehash(Math.max(4 * SMALL, count * 4));
     }
 
-    public Symbol lookup(String name) {
+    public Symbol lookup(Name name) {
         for (Scope scope = this; scope != null; scope = scope.outer) {
             Symbol symbol = scope.lookupLocal(name);
             if (symbol != null) return symbol;
@@ -34,12 +82,48 @@ public final class Scope {
         return null;
     }
 
-    private Symbol lookupLocal(String name) {
+    private Symbol lookupLocal(Name name) {
+        if (base != null) return base.lookupLocal(name, size);
+        if (table != null) return table[slot(name)];
         for (Symbol symbol = first; symbol != null; symbol = symbol.next)
-            if (symbol.name.equals(name)) return symbol;
+            if (symbol.name == name) return symbol;
         return null;
     }
 
+    /**
+     * returns the last symbol of the name among the first size entered.
+     */
+    private Symbol lookupLocal(Name name, int size) {
+        Symbol symbol = lookupLocal(name);
+        while (symbol != null && symbol.index >= size) {
+            do symbol = symbol.next;
+            while (symbol != null && symbol.name != name);
+        }
+        return symbol;
+    }
+
+    /**
+     * returns the slot of the name in the table, or the empty slot where it goes.
+     */
+    private int slot(Name name) {
+        int mask = table.length - 1;
+        int hash = name.index * 0x9E3779B9;
+        int i = (hash ^ (hash >>> 16)) & mask;
+        while (table[i] != null && table[i].name != name) i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * rebuilds the table, keeping the last entered symbol of each name.
+     */
+    private void rehash(int capacity) {
+        table = new Symbol[Integer.highestOneBit(capacity - 1) << 1];
+        for (Symbol symbol = first; symbol != null; symbol = symbol.next) {
+            int i = slot(symbol.name);
+            if (table[i] == null) table[i] = symbol;
+        }
+    }
+
     public String toString() {
         StringBuffer buffer = new StringBuffer();
         buffer.append("{");
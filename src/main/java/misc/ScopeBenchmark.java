@@ -0,0 +1,45 @@
+package misc;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+/**
+ * usage: java misc.ScopeBenchmark <options> [- [output]]
+ * Measures the analysis of programs of 1k, 10k and 100k declarations.
+ */
+public class ScopeBenchmark extends Benchmark {
+
+    public static final int[] DECLARATIONS = {1000, 10000, 100000};
+
+    /**
+     * generates its own programs, the source is not used.
+     */
+    public void run(Global global) {
+        OutputStream out = global.openOutput(object);
+        PrintWriter writer = new PrintWriter(out, true);
+        measure(global, writer);
+        writer.close();
+        global.close(out);
+    }
+
+    public void measure(Global global, PrintWriter out) {
+        for (int n : DECLARATIONS) {
+            TokenBuffer tokens = program(global, n);
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i <= runs; i++) {
+                Tree tree = new Parser(global, tokens).parse();
+                Analyzer analyzer = new Analyzer(global);
+                Scope scope = analyzer.createGlobalScope();
+                long start = System.nanoTime();
+                analyzer.analyze(tree, scope);
+                if (i > 0) best = Math.min(best, System.nanoTime() - start);
+            }
+            report(out, n + " declarations", best / 1e6, "ms");
+            report(out, "  per declaration", best / 1e3 / n, "us");
+        }
+    }
+
+    public static void main(String[] args) {
+        new ScopeBenchmark().run(args);
+    }
+}
@@ -0,0 +1,113 @@
+package misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * usage: java misc.SessionBenchmark <options> [- [output]]
+ * Measures the compilation of PROGRAMS small generated programs by the
+ * sessions of one JVM, on 1, 2, 4, ... threads up to the number of cores,
+ * against the start of a JVM per program.
+ */
+public class SessionBenchmark extends Benchmark {
+
+    public static final int PROGRAMS = 2000;
+
+    /**
+     * declarations of each program
+     */
+    public static final int DECLARATIONS = 10;
+
+    /**
+     * programs compiled by a JVM each
+     */
+    public static final int COLD = 10;
+
+    /**
+     * generates its own programs, the source is not used.
+     */
+    public void run(Global global) {
+        OutputStream out = global.openOutput(object);
+        PrintWriter writer = new PrintWriter(out, true);
+        measure(global, writer);
+        writer.close();
+        global.close(out);
+    }
+
+    public void measure(Global global, PrintWriter out) {
+        List<String> programs = new ArrayList<>();
+        for (int i = 0; i < PROGRAMS; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < DECLARATIONS; j++) declaration(text, j);
+            main(text, DECLARATIONS);
+            text.append("// program ").append(i).append('\n');
+            programs.add(text.toString());
+        }
+        out.printf("%d programs of %d declarations%n", PROGRAMS, DECLARATIONS);
+
+        double cold = cold(global, programs.subList(0, COLD));
+        report(out, "JVM per program", cold * 1e3, "ms/program");
+
+        CompilerSession session = new CompilerSession();
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            double time = time(() -> compile(global, session, pool, programs)) / PROGRAMS;
+            report(out, "sessions, " + threads + " thread(s)", time * 1e3, "ms/program");
+            report(out, "  speedup", cold / time, "x");
+            pool.shutdown();
+            if (threads == cores) break;
+        }
+    }
+
+    private void compile(Global global, CompilerSession session, ExecutorService pool,
+                         List<String> programs) {
+        List<Future<CompilerSession.Result>> results = new ArrayList<>();
+        for (String program : programs) results.add(pool.submit(() -> session.compile(program)));
+        try {
+            for (Future<CompilerSession.Result> result : results)
+                if (!result.get().succeeded()) throw global.fatal(result.get().errors());
+        } catch (Exception exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    /**
+     * returns the time in seconds to compile a program in a new JVM.
+     */
+    private double cold(Global global, List<String> programs) {
+        try {
+            Path directory = Files.createTempDirectory("session");
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            String classpath = System.getProperty("java.class.path");
+            long start = System.nanoTime();
+            for (int i = 0; i < programs.size(); i++) {
+                Path source = directory.resolve(i + ".misc");
+                Files.write(source, programs.get(i).getBytes("ISO-8859-1"));
+                Process process = new ProcessBuilder(java, "-cp", classpath, Main.class.getName(),
+                        source.toString()).inheritIO().start();
+                if (process.waitFor() != 0) throw global.fatal("compilation of " + source + " failed");
+            }
+            double time = (System.nanoTime() - start) / 1e9 / programs.size();
+            for (File file : directory.toFile().listFiles()) file.delete();
+            Files.delete(directory);
+            return time;
+        } catch (IOException | InterruptedException exception) {
+            throw global.fatal(exception);
+        }
+    }
+
+    public static void main(String[] args) {
+        new SessionBenchmark().run(args);
+    }
+}
@@ -0,0 +1,150 @@
+package misc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Input of the scanner. Characters are read byte by byte from a buffer,
+ * line terminators "\r\n" and "\r" are both returned as '\n'.
+ */
+public abstract class Source {
+
+    public static final int EOF = -1;
+
+    /**
+     * size of the buffer of stream sources
+     */
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * current buffer, valid between pos and limit
+     */
+    protected byte[] buf;
+
+    protected int pos;
+
+    protected int limit;
+
+    /**
+     * returns the next character or EOF.
+     */
+    public final int read() throws IOException {
+        if (pos == limit && !fill()) return EOF;
+        int ch = buf[pos++] & 0xff;
+        if (ch == '\r') {
+            if (pos == limit && !fill()) return '\n';
+            if (buf[pos] == '\n') pos++;
+            ch = '\n';
+        }
+        return ch;
+    }
+
+    /**
+     * returns the bytes left, read buffer by buffer: the line terminators
+     * are not translated.
+     */
+    public byte[] readAll() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        while (pos < limit || fill()) {
+            bytes.write(buf, pos, limit - pos);
+            pos = limit;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * refills the buffer, returns false at end of input.
+     */
+    protected abstract boolean fill() throws IOException;
+
+    public void close() throws IOException {
+    }
+
+    /**
+     * Opens a file as a memory mapped source.
+     */
+    public static Source map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Buffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Source reading a byte buffer (heap, direct or memory mapped).
+     */
+    public static class Buffer extends Source {
+        private final ByteBuffer input;
+
+        private final ByteBuffer buffer;
+
+        public Buffer(ByteBuffer buffer) {
+            this.input = buffer.slice();
+            this.buffer = input.duplicate();
+            if (this.buffer.hasArray()) {
+                this.buf = this.buffer.array();
+                this.pos = this.buffer.arrayOffset();
+                this.limit = this.pos + this.buffer.remaining();
+                this.buffer.position(this.buffer.limit());
+            } else {
+                this.buf = new byte[Math.min(BUFFER_SIZE, Math.max(1, this.buffer.remaining()))];
+            }
+        }
+
+        /**
+         * returns the whole input, independently of what has been read.
+         */
+        public ByteBuffer input() {
+            return input.duplicate();
+        }
+
+        public byte[] readAll() {
+            byte[] bytes = new byte[limit - pos + buffer.remaining()];
+            System.arraycopy(buf, pos, bytes, 0, limit - pos);
+            buffer.get(bytes, limit - pos, buffer.remaining());
+            pos = limit;
+            return bytes;
+        }
+
+        protected boolean fill() {
+            int length = Math.min(buf.length, buffer.remaining());
+            if (length == 0) return false;
+            buffer.get(buf, 0, length);
+            pos = 0;
+            limit = length;
+            return true;
+        }
+    }
+
+    /**
+     * Source reading an input stream through a reusable buffer.
+     */
+    public static class Stream extends Source {
+        private final InputStream in;
+
+        public Stream(InputStream in) {
+            this(in, BUFFER_SIZE);
+        }
+
+        public Stream(InputStream in, int size) {
+            this.in = in;
+            this.buf = new byte[size];
+        }
+
+        protected boolean fill() throws IOException {
+            int length = in.read(buf, 0, buf.length);
+            if (length <= 0) return false;
+            pos = 0;
+            limit = length;
+            return true;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package misc;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wall time, CPU time and bytes allocated of each phase of a compilation,
+ * measured on the thread compiling, and counts of what it produced. The
+ * threads started by -parallel and -pipeline are not measured. The peak
+ * heap is the sum of the peaks of the heap pools since the statistics were
+ * created, an upper bound.
+ */
+public class Statistics {
+
+    /**
+     * A measured phase, times in nanoseconds.
+     */
+    public static class Phase {
+        public final String name;
+        public long wall;
+        public long cpu;
+        public long allocated;
+
+        Phase(String name) {
+            this.name = name;
+        }
+    }
+
+    public final String source;
+
+    public final List<Phase> phases = new ArrayList<>();
+
+    /**
+     * counts by name, in order of report
+     */
+    public final Map<String, Long> counts = new LinkedHashMap<>();
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final List<MemoryPoolMXBean> pools = new ArrayList<>();
+
+    private Phase current;
+
+    public Statistics(String source) {
+        this.source = source;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isValid()) continue;
+            pool.resetPeakUsage();
+            pools.add(pool);
+        }
+    }
+
+    /**
+     * starts the phase, ends the current one.
+     */
+    public void start(String name) {
+        stop();
+        current = new Phase(name);
+        phases.add(current);
+        current.allocated = -allocated();
+        current.cpu = -threads.getCurrentThreadCpuTime();
+        current.wall = -System.nanoTime();
+    }
+
+    /**
+     * ends the current phase, if any.
+     */
+    public void stop() {
+        if (current == null) return;
+        current.wall += System.nanoTime();
+        current.cpu += threads.getCurrentThreadCpuTime();
+        current.allocated += allocated();
+        current = null;
+    }
+
+    public void count(String name, long value) {
+        counts.put(name, value);
+    }
+
+    /**
+     * returns the bytes allocated by the current thread, 0 if the JVM does
+     * not measure them.
+     */
+    private long allocated() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return 0;
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : pools) peak += pool.getPeakUsage().getUsed();
+        return peak;
+    }
+
+    public void write(PrintStream out) {
+        stop();
+        out.printf("%-12s %12s %12s %14s%n", "phase", "wall ms", "cpu ms", "allocated KB");
+        Phase total = new Phase("total");
+        for (Phase phase : phases) {
+            write(out, phase);
+            total.wall += phase.wall;
+            total.cpu += phase.cpu;
+            total.allocated += phase.allocated;
+        }
+        write(out, total);
+        for (Map.Entry<String, Long> count : counts.entrySet())
+            out.printf("%-12s %12d%n", count.getKey(), count.getValue());
+        out.printf("%-12s %12d KB%n", "peak heap", peakHeap() >> 10);
+    }
+
+    private static void write(PrintStream out, Phase phase) {
+        out.printf("%-12s %12.2f %12.2f %14d%n", phase.name, phase.wall / 1e6, phase.cpu / 1e6,
+                phase.allocated >> 10);
+    }
+
+    /**
+     * writes the statistics as a JSON object on one line.
+     */
+    public void writeJson(PrintStream out) {
+        stop();
+        StringBuilder json = new StringBuilder("{\"source\":");
+        if (source == null) json.append("null");
+        else json.append('"').append(source.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        json.append(",\"phases\":[");
+        for (int i = 0; i < phases.size(); i++) {
+            Phase phase = phases.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"name\":\"").append(phase.name)
+                    .append("\",\"wallNanos\":").append(phase.wall)
+                    .append(",\"cpuNanos\":").append(phase.cpu)
+                    .append(",\"allocatedBytes\":").append(phase.allocated).append('}');
+        }
+        json.append(']');
+        for (Map.Entry<String, Long> count : counts.entrySet())
+            json.append(",\"").append(count.getKey()).append("\":").append(count.getValue());
+        json.append(",\"peakHeapBytes\":").append(peakHeap()).append('}');
+        out.println(json);
+    }
+}
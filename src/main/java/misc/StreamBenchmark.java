@@ -0,0 +1,63 @@
+package misc;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * usage: java -XX:+UseSerialGC -Xmn8m misc.StreamBenchmark <options> [source]
+ * Measures the peak heap of the whole program compilation and of the
+ * streaming compilation, on the source and on a source twice as long.
+ * A small young generation keeps the peak close to the live memory.
+ */
+public class StreamBenchmark extends Benchmark {
+
+    public StreamBenchmark() {
+        size = 2;
+    }
+
+    public void measure(Global global, PrintWriter out) {
+        String[] sources = {source, generate(global, 2L * size * (1 << 20))};
+        for (String source : sources) {
+            GeneratorTest compiler = new GeneratorTest();
+            compiler.source = source;
+            out.printf("%s%n", source);
+            for (int mode = 0; mode < 2; mode++) {
+                compiler.stream = mode == 1;
+                long start = System.nanoTime();
+                long peak = peak(() -> {
+                    Source in = global.openSource(source);
+                    compiler.run(global, in, new PrintWriter(new OutputStream() {
+                        public void write(int b) {
+                        }
+                    }));
+                    global.close(in);
+                });
+                double time = (System.nanoTime() - start) / 1e9;
+                String label = compiler.stream ? "stream" : "whole program";
+                report(out, label + " peak heap", peak / (double) (1 << 20), "MB");
+                report(out, label + " time", time, "s");
+            }
+        }
+    }
+
+    /**
+     * runs the task and returns the peak of the heap used meanwhile.
+     */
+    private static long peak(Runnable task) {
+        for (int i = 0; i < 3; i++) System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            pool.resetPeakUsage();
+        task.run();
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        return peak;
+    }
+
+    public static void main(String[] args) {
+        new StreamBenchmark().run(args);
+    }
+}
@@ -1,9 +1,9 @@
 package misc;
 
 public class Symbol implements Kinds {
-    public final int pos;
+    public int pos;
 
-    public final String name;
+    public final Name name;
 
     public final int kind;
 
@@ -11,9 +11,24 @@ public class Symbol implements Kinds {
 
     public int offset;
 
+    /**
+     * register of the variable in the RISC code
+     */
+    public int register;
+
+    /**
+     * number of symbols entered before this one in its scope
+     */
+    public int index;
+
+    /**
+     * true if the variable is assigned after its declaration
+     */
+    public boolean assigned;
+
     public Symbol next;
 
-    public Symbol(int pos, String name, int kind, Type type) {
+    public Symbol(int pos, Name name, int kind, Type type) {
         if (name == null)
             throw new IllegalArgumentException("name is null");
         this.pos = pos;
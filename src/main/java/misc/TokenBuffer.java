@@ -0,0 +1,160 @@
+package misc;
+
+import java.util.Arrays;
+
+/**
+ * Tokens of a source, stored in parallel arrays. The value of a token is
+ * the index of its name for identifiers and strings, its value for numbers
+ * and 0 otherwise. The last token is always EOF once the source is scanned.
+ */
+public class TokenBuffer implements Tokens, TokenStream {
+
+    private int[] kinds;
+
+    private int[] positions;
+
+    private int[] values;
+
+    private int size;
+
+    public TokenBuffer() {
+        this(1 << 10);
+    }
+
+    public TokenBuffer(int capacity) {
+        this.kinds = new int[capacity];
+        this.positions = new int[capacity];
+        this.values = new int[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * appends all the tokens of the scanner, EOF included.
+     */
+    public TokenBuffer scan(Scanner scanner) {
+        while (true) {
+            add(scanner);
+            if (scanner.token == EOF) return this;
+            scanner.nextToken();
+        }
+    }
+
+    /**
+     * appends the current token of the scanner.
+     */
+    public void add(Scanner scanner) {
+        int token = scanner.token;
+        int value = 0;
+        if (token == IDENT || token == STRING) value = scanner.name.index;
+        else if (token == NUMBER) value = scanner.value;
+        add(token, scanner.start, value);
+    }
+
+    public void add(int kind, int position, int value) {
+        if (size == kinds.length) grow(size * 2);
+        kinds[size] = kind;
+        positions[size] = position;
+        values[size] = value;
+        size++;
+    }
+
+    private void grow(int capacity) {
+        kinds = Arrays.copyOf(kinds, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    /**
+     * moves all positions the given number of lines down and replaces the
+     * name indices of identifiers and strings by names[index].
+     */
+    public void relocate(int lines, int[] names) {
+        for (int i = 0; i < size; i++) {
+            positions[i] = Position.shift(positions[i], lines);
+            if (kinds[i] == IDENT || kinds[i] == STRING) values[i] = names[values[i]];
+        }
+    }
+
+    /**
+     * appends the tokens from index from (included) to index to (excluded) of other.
+     */
+    public void append(TokenBuffer other, int from, int to) {
+        int length = to - from;
+        if (size + length > kinds.length) grow(Math.max(size + length, size * 2));
+        System.arraycopy(other.kinds, from, kinds, size, length);
+        System.arraycopy(other.positions, from, positions, size, length);
+        System.arraycopy(other.values, from, values, size, length);
+        size += length;
+    }
+
+    /**
+     * replaces the tokens from index from to index to (excluded) by the
+     * tokens of other from index otherFrom to index otherTo (excluded).
+     */
+    public void replace(int from, int to, TokenBuffer other, int otherFrom, int otherTo) {
+        int length = otherTo - otherFrom;
+        int newSize = size - (to - from) + length;
+        if (newSize > kinds.length) grow(Math.max(newSize, size * 2));
+        System.arraycopy(kinds, to, kinds, from + length, size - to);
+        System.arraycopy(positions, to, positions, from + length, size - to);
+        System.arraycopy(values, to, values, from + length, size - to);
+        System.arraycopy(other.kinds, otherFrom, kinds, from, length);
+        System.arraycopy(other.positions, otherFrom, positions, from, length);
+        System.arraycopy(other.values, otherFrom, values, from, length);
+        size = newSize;
+    }
+
+    /**
+     * moves the positions of the tokens from index from the given number of lines down.
+     */
+    public void shift(int from, int lines) {
+        if (lines == 0) return;
+        for (int i = from; i < size; i++) positions[i] = Position.shift(positions[i], lines);
+    }
+
+    /**
+     * returns the index of the first token at or after the given line.
+     */
+    public int search(int line) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Position.line(positions[middle]) < line) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * returns true if the token i of this buffer and the token j of other are
+     * the same, once the position of the latter is moved down by lines.
+     */
+    public boolean same(int i, TokenBuffer other, int j, int lines) {
+        return kinds[i] == other.kinds[j] && values[i] == other.values[j] &&
+                positions[i] == Position.shift(other.positions[j], lines);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int kind(int i) {
+        return i < size ? kinds[i] : EOF;
+    }
+
+    public int position(int i) {
+        return positions[i];
+    }
+
+    public int value(int i) {
+        return values[i];
+    }
+
+    /**
+     * returns the number of bytes held by the arrays.
+     */
+    public long bytes() {
+        return 3L * Integer.BYTES * kinds.length;
+    }
+}
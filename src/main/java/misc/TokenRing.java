@@ -0,0 +1,205 @@
+package misc;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Tokens scanned by a lexer thread while the parser reads them. The lexer
+ * publishes the tokens in a bounded ring, and waits when the parser is
+ * CAPACITY tokens behind. The ring has one producer and one consumer, the
+ * indices are published with ordered writes, no lock is taken. Reading a
+ * token releases the tokens before the previous one.
+ * Errors of the lexer are reported by the parser thread, when it reaches
+ * the token where they have been found.
+ */
+public class TokenRing implements Tokens, TokenStream {
+
+    public static final int CAPACITY = 1 << 12;
+
+    /**
+     * the parser reads the previous, the current and the next token
+     */
+    public static final int MIN_CAPACITY = 4;
+
+    /**
+     * number of busy waits before yielding, and of yields before parking
+     */
+    private static final int SPINS = 1 << 6;
+    private static final int YIELDS = 1 << 10;
+
+    private final Global global;
+
+    private final Source in;
+
+    private final int[] kinds;
+    private final int[] positions;
+    private final int[] values;
+    private final int mask;
+
+    /**
+     * number of tokens published by the lexer
+     */
+    private final AtomicInteger tail;
+
+    /**
+     * index of the first token still needed by the parser
+     */
+    private final AtomicInteger head;
+
+    /**
+     * values of tail and head last read by the other thread
+     */
+    private int available;
+    private int released;
+
+    private volatile boolean done;
+    private volatile boolean closed;
+    private volatile Error failure;
+
+    private final ConcurrentLinkedQueue<Diagnostic> errors;
+
+    /**
+     * Error of the lexer, found while scanning the token index.
+     */
+    private static class Diagnostic {
+        final int index;
+        final int position;
+        final String message;
+
+        Diagnostic(int index, int position, String message) {
+            this.index = index;
+            this.position = position;
+            this.message = message;
+        }
+    }
+
+    /**
+     * starts a lexer thread on the source.
+     */
+    public TokenRing(Global global, Source in) {
+        this(global, in, CAPACITY);
+    }
+
+    public TokenRing(Global global, Source in, int capacity) {
+        if (Integer.bitCount(capacity) != 1 || capacity < MIN_CAPACITY)
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        this.global = global;
+        this.in = in;
+        this.kinds = new int[capacity];
+        this.positions = new int[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        this.tail = new AtomicInteger();
+        this.head = new AtomicInteger();
+        this.errors = new ConcurrentLinkedQueue<>();
+        Thread thread = new Thread(this::produce, "lexer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * stops the lexer thread, once the parser does not need more tokens.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    public int kind(int index) {
+        int slot = slot(index);
+        return slot < 0 ? EOF : kinds[slot];
+    }
+
+    public int position(int index) {
+        int slot = slot(index);
+        return slot < 0 ? positions[(available - 1) & mask] : positions[slot];
+    }
+
+    public int value(int index) {
+        int slot = slot(index);
+        return slot < 0 ? 0 : values[slot];
+    }
+
+    /**
+     * returns the slot of the token, waiting for the lexer if needed, or -1
+     * if it is past the EOF token.
+     */
+    private int slot(int index) {
+        if (index < released) throw new Error("token " + index + " has been released");
+        if (index - 1 > released) {
+            released = index - 1;
+            head.lazySet(released);
+        }
+        if (index >= available) {
+            available = await(index);
+            if (index >= available) return -1;
+        }
+        return index & mask;
+    }
+
+    /**
+     * waits until the token index is published or the lexer is done,
+     * reports the errors found meanwhile and returns the number of tokens.
+     */
+    private int await(int index) {
+        int tokens;
+        for (int i = 0; ; i++) {
+            tokens = tail.get();
+            if (tokens > index) break;
+            if (done) {
+                tokens = tail.get();
+                break;
+            }
+            pause(i);
+        }
+        if (failure != null) throw failure;
+        while (!errors.isEmpty() && errors.peek().index < tokens) {
+            Diagnostic error = errors.poll();
+            global.error(error.position, error.message);
+        }
+        return tokens;
+    }
+
+    /**
+     * body of the lexer thread.
+     */
+    private void produce() {
+        try {
+            Scanner scanner = new Scanner(global, in) {
+                protected void error(int position, String message) {
+                    errors.add(new Diagnostic(tail.get(), position, message));
+                }
+            };
+            int count = 0;
+            int first = 0;
+            while (!closed) {
+                for (int i = 0; count - first > mask && count - (first = head.get()) > mask; i++) {
+                    if (closed) return;
+                    pause(i);
+                }
+                int slot = count & mask;
+                int token = scanner.token;
+                kinds[slot] = token;
+                positions[slot] = scanner.start;
+                values[slot] = 0;
+                if (token == IDENT || token == STRING) values[slot] = scanner.name.index;
+                else if (token == NUMBER) values[slot] = scanner.value;
+                tail.lazySet(++count);
+                if (token == EOF) break;
+                scanner.nextToken();
+            }
+        } catch (Error error) {
+            failure = error;
+        } catch (RuntimeException exception) {
+            failure = new Error(exception);
+        } finally {
+            done = true;
+        }
+    }
+
+    private static void pause(int i) {
+        if (i < SPINS) Thread.onSpinWait();
+        else if (i < YIELDS) Thread.yield();
+        else LockSupport.parkNanos(1000);
+    }
+}
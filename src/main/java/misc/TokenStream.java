@@ -0,0 +1,14 @@
+package misc;
+
+/**
+ * Tokens read by the parser, by index from the start of the source. The
+ * indices past the EOF token all have the kind EOF.
+ */
+public interface TokenStream {
+
+    int kind(int index);
+
+    int position(int index);
+
+    int value(int index);
+}
@@ -0,0 +1,110 @@
+package misc;
+
+/**
+ * Tokens of a source scanned on demand. Only the tokens from the last
+ * released index are kept, so the memory used does not depend on the
+ * length of the source.
+ */
+public class TokenWindow implements Tokens, TokenStream {
+
+    private final Scanner scanner;
+
+    /**
+     * tokens from index first to index first + size (excluded), stored
+     * in circular arrays
+     */
+    private int[] kinds;
+    private int[] positions;
+    private int[] values;
+    private int first;
+    private int size;
+
+    /**
+     * true once the EOF token has been read
+     */
+    private boolean eof;
+
+    public TokenWindow(Scanner scanner) {
+        this.scanner = scanner;
+        this.kinds = new int[1 << 8];
+        this.positions = new int[kinds.length];
+        this.values = new int[kinds.length];
+    }
+
+    /**
+     * forgets the tokens before the given index.
+     */
+    public void release(int index) {
+        int count = Math.min(index - first, size);
+        if (count <= 0) return;
+        first += count;
+        size -= count;
+    }
+
+    public int kind(int index) {
+        int slot = slot(index);
+        return slot < 0 ? EOF : kinds[slot];
+    }
+
+    public int position(int index) {
+        int slot = slot(index);
+        return slot < 0 ? scanner.start : positions[slot];
+    }
+
+    public int value(int index) {
+        int slot = slot(index);
+        return slot < 0 ? 0 : values[slot];
+    }
+
+    /**
+     * returns the slot of the token, scanning up to it if needed, or -1
+     * if it is past the EOF token.
+     */
+    private int slot(int index) {
+        if (index < first) throw new Error("token " + index + " has been released");
+        while (index >= first + size) {
+            if (eof) return -1;
+            read();
+        }
+        return index & (kinds.length - 1);
+    }
+
+    private void read() {
+        if (size == kinds.length) grow();
+        int slot = (first + size) & (kinds.length - 1);
+        int token = scanner.token;
+        kinds[slot] = token;
+        positions[slot] = scanner.start;
+        values[slot] = 0;
+        if (token == IDENT || token == STRING) values[slot] = scanner.name.index;
+        else if (token == NUMBER) values[slot] = scanner.value;
+        size++;
+        if (token == EOF) eof = true;
+        else scanner.nextToken();
+    }
+
+    /**
+     * doubles the capacity, the slot of a token depends on the capacity.
+     */
+    private void grow() {
+        int capacity = kinds.length * 2;
+        int[] newKinds = new int[capacity];
+        int[] newPositions = new int[capacity];
+        int[] newValues = new int[capacity];
+        for (int i = first; i < first + size; i++) {
+            newKinds[i & (capacity - 1)] = kinds[i & (kinds.length - 1)];
+            newPositions[i & (capacity - 1)] = positions[i & (kinds.length - 1)];
+            newValues[i & (capacity - 1)] = values[i & (kinds.length - 1)];
+        }
+        kinds = newKinds;
+        positions = newPositions;
+        values = newValues;
+    }
+
+    /**
+     * returns the number of bytes held by the arrays.
+     */
+    public long bytes() {
+        return 3L * Integer.BYTES * kinds.length;
+    }
+}
@@ -55,13 +55,13 @@ public abstract class Tree {
      * FunDecl ident { F } T E
      */
     public static class FunDecl extends Tree {
-        public final String name;
+        public final Name name;
         public final Tree[] args;
         public final Tree result;
         public final Tree body;
         public Symbol sym;
 
-        public FunDecl(int pos, String name, Tree[] args, Tree result, Tree body) {
+        public FunDecl(int pos, Name name, Tree[] args, Tree result, Tree body) {
             super(pos);
             this.name = name;
             this.args = args;
@@ -78,12 +78,12 @@ public abstract class Tree {
      * VarDecl ident T E
      */
     public static class VarDecl extends Tree {
-        public final String name;
+        public final Name name;
         public final Tree type;
         public final Tree value;
         public Symbol sym;
 
-        public VarDecl(int pos, String name, Tree type, Tree value) {
+        public VarDecl(int pos, Name name, Tree type, Tree value) {
             super(pos);
             this.name = name;
             this.type = type;
@@ -99,11 +99,11 @@ public abstract class Tree {
      * Formal ident T
      */
     public static class Formal extends Tree {
-        public final String name;
+        public final Name name;
         public final Tree type;
         public Symbol sym;
 
-        public Formal(int pos, String name, Tree type) {
+        public Formal(int pos, Name name, Tree type) {
             super(pos);
             this.name = name;
             this.type = type;
@@ -234,11 +234,11 @@ public abstract class Tree {
      * Assign ident E
      */
     public static class Assign extends Tree {
-        public final String name;
+        public final Name name;
         public final Tree value;
         public Symbol sym;
 
-        public Assign(int pos, String name, Tree value) {
+        public Assign(int pos, Name name, Tree value) {
             super(pos);
             this.name = name;
             this.value = value;
@@ -253,10 +253,10 @@ public abstract class Tree {
      * Ident ident
      */
     public static class Ident extends Tree {
-        public final String name;
+        public final Name name;
         public Symbol sym;
 
-        public Ident(int pos, String name) {
+        public Ident(int pos, Name name) {
             super(pos);
             this.name = name;
         }
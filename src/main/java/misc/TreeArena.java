@@ -0,0 +1,596 @@
+package misc;
+
+import misc.Tree.*;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Flat AST. Nodes are indices in parallel arrays: kind, position, first
+ * child, next sibling, type and data (name index, number or operator).
+ * Children are linked through their first child and next sibling, the fixed
+ * children of a node come before its lists:
+ * Program    E { D }
+ * FunDecl    T E { F }       data = name
+ * VarDecl    T E             data = name
+ * Formal     T               data = name
+ * ListType   T
+ * FunType    T { T }
+ * Exec       E
+ * While      E E
+ * If         E E E
+ * Assign     E               data = name
+ * Ident                      data = name
+ * IntLit                     data = value
+ * Operation  E [ E ]         data = operator
+ * FunCall    E { E }
+ * Block      E { S }
+ * A TreeArena.Visitor walks the nodes by index, without building their
+ * trees: the Printer prints them and the Analyzer stores their types and
+ * symbols in the arena. The generator still takes trees, which tree()
+ * builds from the analyzed nodes one declaration at a time.
+ */
+public class TreeArena {
+
+    public static final int BAD = 0;
+    public static final int PROGRAM = 1;
+    public static final int FUNDECL = 2;
+    public static final int VARDECL = 3;
+    public static final int FORMAL = 4;
+    public static final int UNITTYPE = 5;
+    public static final int INTTYPE = 6;
+    public static final int LISTTYPE = 7;
+    public static final int FUNTYPE = 8;
+    public static final int EXEC = 9;
+    public static final int WHILE = 10;
+    public static final int IF = 11;
+    public static final int ASSIGN = 12;
+    public static final int IDENT = 13;
+    public static final int UNITLIT = 14;
+    public static final int INTLIT = 15;
+    public static final int NILLIT = 16;
+    public static final int OPERATION = 17;
+    public static final int FUNCALL = 18;
+    public static final int BLOCK = 19;
+
+    /**
+     * no node, no type
+     */
+    public static final int NONE = -1;
+
+    private final Names names;
+
+    private int[] kinds;
+    private int[] positions;
+    private int[] firsts;
+    private int[] nexts;
+    private int[] types;
+    private int[] data;
+    private int size;
+
+    /**
+     * symbols of the nodes, set by the Analyzer, null until the first one
+     */
+    private Symbol[] symbols;
+
+    /**
+     * types of the nodes, shared through their index
+     */
+    private Type[] typeTable;
+    private int typeCount;
+    private final Map<Type, Integer> typeIndices;
+
+    public TreeArena(Names names) {
+        this(names, 1 << 10);
+    }
+
+    public TreeArena(Names names, int capacity) {
+        this.names = names;
+        this.kinds = new int[capacity];
+        this.positions = new int[capacity];
+        this.firsts = new int[capacity];
+        this.nexts = new int[capacity];
+        this.types = new int[capacity];
+        this.data = new int[capacity];
+        this.typeTable = new Type[16];
+        this.typeIndices = new IdentityHashMap<>();
+    }
+
+    /**
+     * parses a program directly in the arena, one declaration at a time.
+     * Returns the program node.
+     */
+    public int parse(Parser parser) {
+        int program = add(PROGRAM, parser.position(), 0, null);
+        int decls = NONE;
+        int last = NONE;
+        Tree decl;
+        while ((decl = parser.parseNextDeclaration()) != null) {
+            int node = add(decl);
+            if (last == NONE) decls = node;
+            else nexts[last] = node;
+            last = node;
+        }
+        int main = add(parser.parseMain());
+        firsts[program] = main;
+        nexts[main] = decls;
+        return program;
+    }
+
+    /**
+     * adds a tree, its types and symbols included, and returns its node.
+     */
+    public int add(Tree tree) {
+        Builder builder = new Builder();
+        tree.apply(builder);
+        return builder.node;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int kind(int node) {
+        return kinds[node];
+    }
+
+    public int position(int node) {
+        return positions[node];
+    }
+
+    /**
+     * returns the first child of the node, or NONE.
+     */
+    public int first(int node) {
+        return firsts[node];
+    }
+
+    /**
+     * returns the next sibling of the node, or NONE.
+     */
+    public int next(int node) {
+        return nexts[node];
+    }
+
+    /**
+     * returns the n-th child of the node, or NONE.
+     */
+    public int child(int node, int n) {
+        int child = firsts[node];
+        for (int i = 0; i < n && child != NONE; i++) child = nexts[child];
+        return child;
+    }
+
+    public int children(int node) {
+        int count = 0;
+        for (int child = firsts[node]; child != NONE; child = nexts[child]) count++;
+        return count;
+    }
+
+    public Type type(int node) {
+        return types[node] == NONE ? null : typeTable[types[node]];
+    }
+
+    public void setType(int node, Type type) {
+        types[node] = typeIndex(type);
+    }
+
+    public int value(int node) {
+        return data[node];
+    }
+
+    public Name name(int node) {
+        return names.get(data[node]);
+    }
+
+    /**
+     * returns the symbol of a declaration, an assignment or an identifier,
+     * null if it has not been analyzed.
+     */
+    public Symbol symbol(int node) {
+        return symbols == null ? null : symbols[node];
+    }
+
+    public void setSymbol(int node, Symbol symbol) {
+        if (symbols == null) symbols = new Symbol[kinds.length];
+        symbols[node] = symbol;
+    }
+
+    /**
+     * returns the number of nodes of the subtree of the node.
+     */
+    public int nodes(int node) {
+        int count = 1;
+        for (int child = firsts[node]; child != NONE; child = nexts[child]) count += nodes(child);
+        return count;
+    }
+
+    /**
+     * applies the visitor to the node, by index.
+     */
+    public void apply(int node, Visitor visitor) {
+        switch (kinds[node]) {
+            case PROGRAM:
+                visitor.caseProgram(node);
+                break;
+            case FUNDECL:
+                visitor.caseFunDecl(node);
+                break;
+            case VARDECL:
+                visitor.caseVarDecl(node);
+                break;
+            case FORMAL:
+                visitor.caseFormal(node);
+                break;
+            case UNITTYPE:
+                visitor.caseUnitType(node);
+                break;
+            case INTTYPE:
+                visitor.caseIntType(node);
+                break;
+            case LISTTYPE:
+                visitor.caseListType(node);
+                break;
+            case FUNTYPE:
+                visitor.caseFunType(node);
+                break;
+            case EXEC:
+                visitor.caseExec(node);
+                break;
+            case WHILE:
+                visitor.caseWhile(node);
+                break;
+            case IF:
+                visitor.caseIf(node);
+                break;
+            case ASSIGN:
+                visitor.caseAssign(node);
+                break;
+            case IDENT:
+                visitor.caseIdent(node);
+                break;
+            case UNITLIT:
+                visitor.caseUnitLit(node);
+                break;
+            case INTLIT:
+                visitor.caseIntLit(node);
+                break;
+            case NILLIT:
+                visitor.caseNilLit(node);
+                break;
+            case OPERATION:
+                visitor.caseOperation(node);
+                break;
+            case FUNCALL:
+                visitor.caseFunCall(node);
+                break;
+            case BLOCK:
+                visitor.caseBlock(node);
+                break;
+            default:
+                visitor.caseBad(node);
+        }
+    }
+
+    /**
+     * releases the unused capacity of the arrays.
+     */
+    public void trim() {
+        resize(size);
+    }
+
+    /**
+     * returns the number of bytes used by the nodes, and by their symbols
+     * once analyzed (compressed references).
+     */
+    public long bytes() {
+        return 6L * Integer.BYTES * kinds.length + (symbols == null ? 0 : (long) Integer.BYTES * symbols.length);
+    }
+
+    /**
+     * Returns the tree of the node. The types and the symbols are copied if
+     * withTypes is set, otherwise the tree can be analyzed (analysis fails
+     * on typed trees).
+     */
+    public Tree tree(int node, boolean withTypes) {
+        Tree tree = materialize(node, withTypes);
+        if (withTypes) tree.typ = type(node);
+        return tree;
+    }
+
+    private Tree materialize(int node, boolean withTypes) {
+        int pos = positions[node];
+        Symbol sym = withTypes ? symbol(node) : null;
+        Tree[] c = new Tree[children(node)];
+        int child = firsts[node];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = tree(child, withTypes);
+            child = nexts[child];
+        }
+        switch (kinds[node]) {
+            case PROGRAM:
+                return new Program(pos, Arrays.copyOfRange(c, 1, c.length), c[0]);
+            case FUNDECL:
+                FunDecl decl = new FunDecl(pos, name(node), Arrays.copyOfRange(c, 2, c.length), c[0], c[1]);
+                decl.sym = sym;
+                return decl;
+            case VARDECL:
+                VarDecl variable = new VarDecl(pos, name(node), c[0], c[1]);
+                variable.sym = sym;
+                return variable;
+            case FORMAL:
+                Formal formal = new Formal(pos, name(node), c[0]);
+                formal.sym = sym;
+                return formal;
+            case UNITTYPE:
+                return new UnitType(pos);
+            case INTTYPE:
+                return new IntType(pos);
+            case LISTTYPE:
+                return new ListType(pos, c[0]);
+            case FUNTYPE:
+                return new FunType(pos, Arrays.copyOfRange(c, 1, c.length), c[0]);
+            case EXEC:
+                return new Exec(pos, c[0]);
+            case WHILE:
+                return new While(pos, c[0], c[1]);
+            case IF:
+                return new If(pos, c[0], c[1], c[2]);
+            case ASSIGN:
+                Assign assign = new Assign(pos, name(node), c[0]);
+                assign.sym = sym;
+                return assign;
+            case IDENT:
+                Ident ident = new Ident(pos, name(node));
+                ident.sym = sym;
+                return ident;
+            case UNITLIT:
+                return new UnitLit(pos);
+            case INTLIT:
+                return new IntLit(pos, data[node]);
+            case NILLIT:
+                return new NilLit(pos);
+            case OPERATION:
+                return new Operation(pos, data[node], c[0], c.length > 1 ? c[1] : null);
+            case FUNCALL:
+                return new FunCall(pos, c[0], Arrays.copyOfRange(c, 1, c.length));
+            case BLOCK:
+                return new Block(pos, Arrays.copyOfRange(c, 1, c.length), c[0]);
+            default:
+                return new Bad(pos);
+        }
+    }
+
+    private int add(int kind, int pos, int value, Type type) {
+        if (size == kinds.length) resize(Math.max(size * 2, 16));
+        kinds[size] = kind;
+        positions[size] = pos;
+        firsts[size] = NONE;
+        nexts[size] = NONE;
+        types[size] = typeIndex(type);
+        data[size] = value;
+        return size++;
+    }
+
+    private void resize(int capacity) {
+        kinds = Arrays.copyOf(kinds, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        firsts = Arrays.copyOf(firsts, capacity);
+        nexts = Arrays.copyOf(nexts, capacity);
+        types = Arrays.copyOf(types, capacity);
+        data = Arrays.copyOf(data, capacity);
+        if (symbols != null) symbols = Arrays.copyOf(symbols, capacity);
+    }
+
+    /**
+     * links child after the last child of parent (NONE if it is the first one),
+     * returns child.
+     */
+    private int link(int parent, int last, int child) {
+        if (last == NONE) firsts[parent] = child;
+        else nexts[last] = child;
+        return child;
+    }
+
+    private int typeIndex(Type type) {
+        if (type == null) return NONE;
+        Integer index = typeIndices.get(type);
+        if (index == null) {
+            if (typeCount == typeTable.length) typeTable = Arrays.copyOf(typeTable, typeCount * 2);
+            typeTable[typeCount] = type;
+            index = typeCount++;
+            typeIndices.put(type, index);
+        }
+        return index;
+    }
+
+    /**
+     * Visitor of the nodes by index, see apply(). The children of a node
+     * are reached through first() and next().
+     */
+    public interface Visitor {
+        void caseBad(int node);
+
+        void caseProgram(int node);
+
+        void caseFunDecl(int node);
+
+        void caseVarDecl(int node);
+
+        void caseFormal(int node);
+
+        void caseUnitType(int node);
+
+        void caseIntType(int node);
+
+        void caseListType(int node);
+
+        void caseFunType(int node);
+
+        void caseExec(int node);
+
+        void caseWhile(int node);
+
+        void caseIf(int node);
+
+        void caseAssign(int node);
+
+        void caseIdent(int node);
+
+        void caseUnitLit(int node);
+
+        void caseIntLit(int node);
+
+        void caseNilLit(int node);
+
+        void caseOperation(int node);
+
+        void caseFunCall(int node);
+
+        void caseBlock(int node);
+    }
+
+    /**
+     * Adds the nodes of a tree, the parent before its children.
+     */
+    private class Builder implements Tree.Visitor {
+        private int node;
+
+        private int open(Tree tree, int kind, int value) {
+            return node = TreeArena.this.add(kind, tree.pos, value, tree.typ);
+        }
+
+        private int open(Tree tree, int kind, Name name, Symbol sym) {
+            int node = open(tree, kind, name.index);
+            if (sym != null) setSymbol(node, sym);
+            return node;
+        }
+
+        /**
+         * adds child after the last child of parent, returns its node.
+         */
+        private int add(int parent, int last, Tree child) {
+            if (child == null) return last;
+            child.apply(this);
+            return link(parent, last, node);
+        }
+
+        private int add(int parent, int last, Tree[] children) {
+            for (Tree child : children) last = add(parent, last, child);
+            return last;
+        }
+
+        private void close(int parent) {
+            node = parent;
+        }
+
+        public void caseBad(Bad tree) {
+            open(tree, BAD, 0);
+        }
+
+        public void caseProgram(Program tree) {
+            int parent = open(tree, PROGRAM, 0);
+            add(parent, add(parent, NONE, tree.expr), tree.decls);
+            close(parent);
+        }
+
+        public void caseFunDecl(FunDecl tree) {
+            int parent = open(tree, FUNDECL, tree.name, tree.sym);
+            int last = add(parent, NONE, tree.result);
+            add(parent, add(parent, last, tree.body), tree.args);
+            close(parent);
+        }
+
+        public void caseVarDecl(VarDecl tree) {
+            int parent = open(tree, VARDECL, tree.name, tree.sym);
+            add(parent, add(parent, NONE, tree.type), tree.value);
+            close(parent);
+        }
+
+        public void caseFormal(Formal tree) {
+            int parent = open(tree, FORMAL, tree.name, tree.sym);
+            add(parent, NONE, tree.type);
+            close(parent);
+        }
+
+        public void caseUnitType(UnitType tree) {
+            open(tree, UNITTYPE, 0);
+        }
+
+        public void caseIntType(IntType tree) {
+            open(tree, INTTYPE, 0);
+        }
+
+        public void caseListType(ListType tree) {
+            int parent = open(tree, LISTTYPE, 0);
+            add(parent, NONE, tree.elements);
+            close(parent);
+        }
+
+        public void caseFunType(FunType tree) {
+            int parent = open(tree, FUNTYPE, 0);
+            add(parent, add(parent, NONE, tree.result), tree.args);
+            close(parent);
+        }
+
+        public void caseExec(Exec tree) {
+            int parent = open(tree, EXEC, 0);
+            add(parent, NONE, tree.expr);
+            close(parent);
+        }
+
+        public void caseWhile(While tree) {
+            int parent = open(tree, WHILE, 0);
+            add(parent, add(parent, NONE, tree.cond), tree.body);
+            close(parent);
+        }
+
+        public void caseIf(If tree) {
+            int parent = open(tree, IF, 0);
+            int last = add(parent, NONE, tree.cond);
+            add(parent, add(parent, last, tree.thenp), tree.elsep);
+            close(parent);
+        }
+
+        public void caseAssign(Assign tree) {
+            int parent = open(tree, ASSIGN, tree.name, tree.sym);
+            add(parent, NONE, tree.value);
+            close(parent);
+        }
+
+        public void caseIdent(Ident tree) {
+            open(tree, IDENT, tree.name, tree.sym);
+        }
+
+        public void caseUnitLit(UnitLit tree) {
+            open(tree, UNITLIT, 0);
+        }
+
+        public void caseIntLit(IntLit tree) {
+            open(tree, INTLIT, tree.value);
+        }
+
+        public void caseNilLit(NilLit tree) {
+            open(tree, NILLIT, 0);
+        }
+
+        public void caseOperation(Operation tree) {
+            int parent = open(tree, OPERATION, tree.operator);
+            add(parent, add(parent, NONE, tree.left), tree.right);
+            close(parent);
+        }
+
+        public void caseFunCall(FunCall tree) {
+            int parent = open(tree, FUNCALL, 0);
+            add(parent, add(parent, NONE, tree.expression), tree.args);
+            close(parent);
+        }
+
+        public void caseBlock(Block tree) {
+            int parent = open(tree, BLOCK, 0);
+            add(parent, add(parent, NONE, tree.expression), tree.statements);
+            close(parent);
+        }
+    }
+}
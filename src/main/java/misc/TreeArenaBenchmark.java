@@ -0,0 +1,58 @@
+package misc;
+
+import java.io.PrintWriter;
+
+/**
+ * usage: java misc.TreeArenaBenchmark <options> [source]
+ * Measures the memory held per node by the object AST and by the arena,
+ * and the time to parse into each of them.
+ */
+public class TreeArenaBenchmark extends Benchmark {
+
+    public void measure(Global global, PrintWriter out) {
+        TokenBuffer tokens = scan(global);
+
+        long before = used();
+        Tree tree = new Parser(global, tokens).parse();
+        long objects = used() - before;
+
+        before = used();
+        TreeArena arena = new TreeArena(global.names);
+        arena.parse(new Parser(global, tokens));
+        arena.trim();
+        long flat = used() - before;
+
+        int nodes = arena.size();
+        out.printf("%s: %d nodes%n", source, nodes);
+        report(out, "bytes per node (objects)", objects / (double) nodes, "bytes");
+        report(out, "bytes per node (arena, heap)", flat / (double) nodes, "bytes");
+        report(out, "bytes per node (arena, arrays)", arena.bytes() / (double) nodes, "bytes");
+        report(out, "parse (objects)", nodes / time(() ->
+                new Parser(global, tokens).parse()) / 1e6, "Mnodes/s");
+        report(out, "parse (arena)", nodes / time(() ->
+                new TreeArena(global.names).parse(new Parser(global, tokens))) / 1e6, "Mnodes/s");
+        report(out, "materialize", nodes / time(() ->
+                arena.tree(0, true)) / 1e6, "Mnodes/s");
+        if (tree.pos != arena.position(0)) out.println("different trees!");
+    }
+
+    private TokenBuffer scan(Global global) {
+        Source in = global.openSource(source);
+        TokenBuffer tokens = new TokenBuffer().scan(new Scanner(global, in));
+        global.close(in);
+        return tokens;
+    }
+
+    /**
+     * returns the heap in use after garbage collection.
+     */
+    private static long used() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) {
+        new TreeArenaBenchmark().run(args);
+    }
+}
@@ -0,0 +1,124 @@
+package misc;
+
+import misc.Tree.*;
+
+/**
+ * Counts the nodes of trees, and the symbols declared by them once they are
+ * analyzed: functions, variables and formals.
+ */
+public class TreeCounter implements Visitor {
+
+    public int nodes = 0;
+
+    public int symbols = 0;
+
+    public TreeCounter count(Tree tree) {
+        if (tree != null) tree.apply(this);
+        return this;
+    }
+
+    public TreeCounter count(Tree[] trees) {
+        for (Tree tree : trees) count(tree);
+        return this;
+    }
+
+    private void symbol(Symbol sym) {
+        if (sym != null) symbols++;
+    }
+
+    public void caseBad(Bad tree) {
+        nodes++;
+    }
+
+    public void caseProgram(Program tree) {
+        nodes++;
+        count(tree.decls).count(tree.expr);
+    }
+
+    public void caseFunDecl(FunDecl tree) {
+        nodes++;
+        symbol(tree.sym);
+        count(tree.args).count(tree.result).count(tree.body);
+    }
+
+    public void caseVarDecl(VarDecl tree) {
+        nodes++;
+        symbol(tree.sym);
+        count(tree.type).count(tree.value);
+    }
+
+    public void caseFormal(Formal tree) {
+        nodes++;
+        symbol(tree.sym);
+        count(tree.type);
+    }
+
+    public void caseUnitType(UnitType tree) {
+        nodes++;
+    }
+
+    public void caseIntType(IntType tree) {
+        nodes++;
+    }
+
+    public void caseListType(ListType tree) {
+        nodes++;
+        count(tree.elements);
+    }
+
+    public void caseFunType(FunType tree) {
+        nodes++;
+        count(tree.args).count(tree.result);
+    }
+
+    public void caseExec(Exec tree) {
+        nodes++;
+        count(tree.expr);
+    }
+
+    public void caseWhile(While tree) {
+        nodes++;
+        count(tree.cond).count(tree.body);
+    }
+
+    public void caseIf(If tree) {
+        nodes++;
+        count(tree.cond).count(tree.thenp).count(tree.elsep);
+    }
+
+    public void caseAssign(Assign tree) {
+        nodes++;
+        count(tree.value);
+    }
+
+    public void caseIdent(Ident tree) {
+        nodes++;
+    }
+
+    public void caseUnitLit(UnitLit tree) {
+        nodes++;
+    }
+
+    public void caseIntLit(IntLit tree) {
+        nodes++;
+    }
+
+    public void caseNilLit(NilLit tree) {
+        nodes++;
+    }
+
+    public void caseOperation(Operation tree) {
+        nodes++;
+        count(tree.left).count(tree.right);
+    }
+
+    public void caseFunCall(FunCall tree) {
+        nodes++;
+        count(tree.expression).count(tree.args);
+    }
+
+    public void caseBlock(Block tree) {
+        nodes++;
+        count(tree.statements).count(tree.expression);
+    }
+}
@@ -1,7 +1,17 @@
 package misc;
 
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Types. List and function types are created by the Types of the
+ * compilation, which returns one instance per structure, so types are
+ * compared with ==.
+ */
 public class Type {
 
+    private static final AtomicInteger ids = new AtomicInteger();
+
     public static final Type NONE = new Type();
 
     public static final Type BAD = new Type();
@@ -12,8 +22,6 @@ public class Type {
 
     public static final Type INT = new Type();
 
-    public static final Type NIL = new ListType(BOTTOM);
-
     public static boolean areComparable(Type thiz, Type that) {
         return thiz.isSubtypeOf(that) || that.isSubtypeOf(thiz);
     }
@@ -24,14 +32,29 @@ public class Type {
         return BAD;
     }
 
-    public boolean equals(Object that) {
-        return this == that;
+    final int id;
+
+    /**
+     * list of this type, once created, for the list and function types
+     */
+    volatile ListType list;
+
+    private Type() {
+        this.id = ids.getAndIncrement();
     }
 
-    public boolean isSubtypeOf(Type that) {
-        if (this == BAD) return true;
+    public final boolean isSubtypeOf(Type that) {
+        if (this == that || this == BAD) return true;
         if (this == BOTTOM) return that != BAD;
-        return this.equals(that);
+        if (!(this instanceof ListType && that instanceof ListType)) return false;
+        Long key = ((long) id << 32) | that.id;
+        Map<Long, Boolean> subtypes = ((ListType) this).types.subtypes;
+        Boolean result = subtypes.get(key);
+        if (result == null) {
+            result = ((ListType) this).type.isSubtypeOf(((ListType) that).type);
+            subtypes.put(key, result);
+        }
+        return result;
     }
 
     public String toString() {
@@ -43,28 +66,20 @@ public class Type {
         throw new Error("type inconnu");
     }
 
+    /**
+     * List types are covariant.
+     */
     public static class ListType extends Type {
         public final Type type;
 
-        public ListType(Type type) {
-            this.type = type;
-        }
-
-        public boolean equals(Type that) {
-            if (that instanceof Type.ListType) {
-                return this.type.equals(((Type.ListType) that).type);
-            } else {
-                return false;
-            }
-        }
-
-        public boolean isSubtypeOf(Type that) {
-            if (that instanceof Type.ListType) {
-                return this.type.isSubtypeOf(((Type.ListType) that).type);
-            } else {
-                return false;
-            }
+        /**
+         * table of the type
+         */
+        final Types types;
 
+        ListType(Types types, Type type) {
+            this.types = types;
+            this.type = type;
         }
 
         public String toString() {
@@ -73,45 +88,18 @@ public class Type {
         }
     }
 
+    /**
+     * Function types are invariant, a function type is only a subtype of itself.
+     */
     public static class FunType extends Type {
         public final Type[] args;
         public final Type type;
 
-        public FunType(Type[] args, Type type) {
+        FunType(Type[] args, Type type) {
             this.args = args;
             this.type = type;
         }
 
-        public boolean equals(Type that) {
-            if (that instanceof Type.FunType) {
-                if (this.args.length == ((Type.FunType) that).args.length) {
-                    for (int i = 0; i < ((Type.FunType) that).args.length; i++) {
-                        if (!this.args[i].equals(((Type.FunType) that).args[i])) return false;
-                    }
-                } else {
-                    return false;
-                }
-                return ((Type.FunType) that).type.equals(this.type);
-            } else {
-                return false;
-            }
-        }
-
-        public boolean isSubtypeOf(Type that) {
-            if (that instanceof Type.FunType) {
-                if (this.args.length == ((Type.FunType) that).args.length) {
-                    for (int i = 0; i < ((Type.FunType) that).args.length; i++) {
-                        if (!this.args[i].equals(((Type.FunType) that).args[i])) return false;
-                    }
-                } else {
-                    return false;
-                }
-                return ((Type.FunType) that).type.equals(this.type);
-            } else {
-                return false;
-            }
-        }
-
         public String toString() {
             StringBuilder s = new StringBuilder("(");
 
@@ -0,0 +1,59 @@
+package misc;
+
+import java.io.PrintWriter;
+
+/**
+ * usage: java misc.TypeBenchmark <options> [source]
+ * Measures the analysis of the source. The generated program uses deeply
+ * nested list types and functions passed as arguments.
+ */
+public class TypeBenchmark extends Benchmark {
+
+    /**
+     * depth of the nested list types of the generated program
+     */
+    public static final int DEPTH = 8;
+
+    public TypeBenchmark() {
+        size = 4;
+    }
+
+    public void measure(Global global, PrintWriter out) {
+        Source in = global.openSource(source);
+        TokenBuffer tokens = new TokenBuffer().scan(new Scanner(global, in));
+        global.close(in);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i <= runs; i++) {
+            Tree tree = new Parser(global, tokens).parse();
+            Analyzer analyzer = new Analyzer(global);
+            Scope scope = analyzer.createGlobalScope();
+            long start = System.nanoTime();
+            analyzer.analyze(tree, scope);
+            if (i > 0) best = Math.min(best, System.nanoTime() - start);
+        }
+        out.printf("%s: %d errors%n", source, global.errors());
+        report(out, "analysis", best / 1e6, "ms");
+    }
+
+    public void declaration(StringBuilder out, int i) {
+        String list = "Int";
+        for (int depth = 0; depth < DEPTH; depth++) list = "List[" + list + "]";
+        out.append("def g").append(i).append(" (l: ").append(list)
+                .append(", f: (Int, Int)Int): ").append(list).append(" = {\n");
+        out.append("  var m: ").append(list).append(" = l;\n");
+        out.append("  var k: (Int, Int)Int = f;\n");
+        out.append("  if (isEmpty (m)) ");
+        if (i == 0) out.append("m");
+        else out.append("g").append(i - 1).append(" (tail (m), k)");
+        out.append(" else head (m) :: tail (m)\n");
+        out.append("};\n");
+    }
+
+    public void main(StringBuilder out, int n) {
+        out.append("printInt (0)\n");
+    }
+
+    public static void main(String[] args) {
+        new TypeBenchmark().run(args);
+    }
+}
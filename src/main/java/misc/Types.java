@@ -0,0 +1,75 @@
+package misc;
+
+import misc.Type.FunType;
+import misc.Type.ListType;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * List and function types of a compilation, kept by its Global. list() and
+ * function() return one instance per structure, so types are compared with
+ * ==. The table is dropped with its Global, the types of two compilations
+ * are never compared.
+ */
+public class Types {
+
+    private final Map<Type, ListType> lists = new ConcurrentHashMap<>();
+
+    private final Map<Signature, FunType> functions = new ConcurrentHashMap<>();
+
+    /**
+     * results of isSubtypeOf on list types, by pair of ids
+     */
+    final Map<Long, Boolean> subtypes = new ConcurrentHashMap<>();
+
+    /**
+     * type of nil
+     */
+    public final ListType NIL = list(Type.BOTTOM);
+
+    public ListType list(Type type) {
+        // the predefined types are shared by all the tables
+        if (!(type instanceof ListType || type instanceof FunType))
+            return lists.computeIfAbsent(type, key -> new ListType(this, key));
+        ListType list = type.list;
+        if (list == null) type.list = list = lists.computeIfAbsent(type, key -> new ListType(this, key));
+        return list;
+    }
+
+    public FunType function(Type[] args, Type type) {
+        FunType function = functions.get(new Signature(args, type));
+        if (function != null) return function;
+        Type[] copy = Arrays.copyOf(args, args.length);
+        return functions.computeIfAbsent(new Signature(copy, type), key -> new FunType(copy, type));
+    }
+
+    /**
+     * Key of the function types, the types of a signature are canonical.
+     */
+    private static final class Signature {
+        private final Type[] args;
+        private final Type type;
+
+        Signature(Type[] args, Type type) {
+            this.args = args;
+            this.type = type;
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof Signature)) return false;
+            Signature that = (Signature) object;
+            if (type != that.type || args.length != that.args.length) return false;
+            for (int i = 0; i < args.length; i++)
+                if (args[i] != that.args[i]) return false;
+            return true;
+        }
+
+        public int hashCode() {
+            int hash = type.id;
+            for (Type arg : args) hash = 31 * hash + arg.id;
+            return hash;
+        }
+    }
+}
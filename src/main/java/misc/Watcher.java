@@ -0,0 +1,214 @@
+package misc;
+
+import misc.risc.Code;
+import misc.risc.Generator;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles sources again each time they are saved. Each source keeps its
+ * Global, an IncrementalLexer and an IncrementalAnalyzer between its
+ * versions: only the lines changed since the previous version are scanned
+ * again, then all the tokens are parsed, and the unchanged declarations
+ * keep the trees and the analysis of the previous version, only the
+ * changed ones are analyzed. All are generated. A version which makes the
+ * compiler fail is reported as an error of its source, the next one is
+ * compiled from scratch; an error of the virtual machine ends the watch.
+ * The directories of the sources are watched by a WatchService; the events
+ * received within SETTLE milliseconds of each other are handled together,
+ * and a source whose bytes have not changed is not compiled again.
+ */
+public class Watcher {
+
+    public static final int SETTLE = 20;
+
+    private final boolean debug;
+
+    private final boolean parallel;
+
+    private final boolean pipeline;
+
+    private final boolean optimize;
+
+    private final PrintStream out;
+
+    /**
+     * sources by absolute path
+     */
+    private final Map<Path, Unit> units = new LinkedHashMap<>();
+
+    private WatchService service;
+
+    /**
+     * A watched source and the state kept between its versions.
+     */
+    private class Unit {
+        final Path source;
+        final Path object;
+        final Error abort = new Error();
+        final Global global;
+        IncrementalAnalyzer analyzer;
+        /**
+         * tokens of text, null if the next version is to be scanned whole
+         */
+        IncrementalLexer lexer;
+        byte[] text;
+
+        Unit(Path source, Path object) {
+            this.source = source;
+            this.object = object;
+            this.global = new Global(source.toString(), debug, parallel, pipeline, abort, null);
+            this.analyzer = new IncrementalAnalyzer(global);
+        }
+    }
+
+    public Watcher(boolean debug, boolean parallel, boolean pipeline, boolean optimize, PrintStream out) {
+        this.debug = debug;
+        this.parallel = parallel;
+        this.pipeline = pipeline;
+        this.optimize = optimize;
+        this.out = out;
+    }
+
+    /**
+     * watches the source, compiled into object.
+     */
+    public void add(Path source, Path object) {
+        units.put(source.toAbsolutePath().normalize(), new Unit(source, object));
+    }
+
+    /**
+     * Compiles the sources, then compiles each again when it changes until
+     * the thread is interrupted or close() is called.
+     */
+    public void watch() throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Path path : units.keySet()) directories.add(path.getParent());
+        for (Path directory : directories)
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        for (Unit unit : units.values()) compile(unit);
+        out.println("watching " + units.size() + " source(s)");
+        try {
+            while (true) {
+                Set<Unit> changed = new LinkedHashSet<>();
+                WatchKey key = service.take();
+                do {
+                    Path directory = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            changed.addAll(units.values());
+                        } else {
+                            Unit unit = units.get(directory.resolve((Path) event.context()));
+                            if (unit != null) changed.add(unit);
+                        }
+                    }
+                    key.reset();
+                } while ((key = service.poll(SETTLE, TimeUnit.MILLISECONDS)) != null);
+                for (Unit unit : changed) compile(unit);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException exception) {
+            // stopped
+        }
+    }
+
+    public void close() throws IOException {
+        if (service != null) service.close();
+    }
+
+    /**
+     * returns the tokens of text: only the lines changed since the previous
+     * version are scanned, the whole text if there is no lexer.
+     */
+    private static TokenBuffer lex(Unit unit, byte[] previous, byte[] text) {
+        if (unit.lexer == null) {
+            unit.lexer = new IncrementalLexer(unit.global, text);
+            return unit.lexer.tokens();
+        }
+        int end = Math.min(previous.length, text.length);
+        int prefix = 0;
+        while (prefix < end && previous[prefix] == text[prefix]) prefix++;
+        int suffix = 0;
+        while (suffix < end - prefix && previous[previous.length - 1 - suffix] == text[text.length - 1 - suffix])
+            suffix++;
+        unit.lexer.edit(prefix, previous.length - prefix - suffix,
+                Arrays.copyOfRange(text, prefix, text.length - suffix));
+        return unit.lexer.tokens();
+    }
+
+    /**
+     * Reports an internal failure of the compiler, as CompilerSession does,
+     * as an error of the source. The lexer and the analyzer may have been
+     * left in the middle of an update, the next version is compiled from
+     * scratch.
+     */
+    private void fail(Unit unit, Throwable exception) {
+        unit.global.error(CompilerSession.message(exception));
+        unit.lexer = null;
+        unit.analyzer = new IncrementalAnalyzer(unit.global);
+    }
+
+    /**
+     * Compiles the new version of the source and writes its object, empty if
+     * there are errors. Prints the time taken and the bodies checked.
+     */
+    private void compile(Unit unit) {
+        long start = System.nanoTime();
+        byte[] text;
+        try {
+            text = Files.readAllBytes(unit.source);
+        } catch (IOException exception) {
+            // removed, compiled again when created
+            out.println(unit.source + ": Cannot open file");
+            return;
+        }
+        if (unit.text != null && Arrays.equals(text, unit.text)) return;
+        byte[] previous = unit.text;
+        unit.text = text;
+        Global global = unit.global;
+        global.resetErrors();
+        Code code = null;
+        try {
+            TokenBuffer tokens = lex(unit, previous, text);
+            // the errors of the scanner are reported again only by a whole scan
+            if (global.errors() > 0) unit.lexer = null;
+            Tree tree = new Parser(global, tokens).parse();
+            tree = unit.analyzer.analyze(tree, new String(text, StandardCharsets.ISO_8859_1));
+            if (global.errors() == 0 && optimize) tree = new Optimizer().optimize(tree);
+            if (global.errors() == 0) code = new Generator(global).generate(unit.analyzer.scope(), tree);
+        } catch (RuntimeException | Error exception) {
+            if (exception != unit.abort && !CompilerSession.isInternal(exception)) throw exception;
+            if (exception != unit.abort) fail(unit, exception);
+        }
+        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(unit.object.toFile()), StandardCharsets.ISO_8859_1))) {
+            if (code != null && global.errors() == 0) code.write(writer);
+        } catch (IOException exception) {
+            System.err.println("error : " + exception.getMessage());
+        }
+        int errors = global.errors();
+        out.printf("%-40s %10.2f ms  %d bodies checked", unit.source, (System.nanoTime() - start) / 1e6,
+                unit.analyzer.checked());
+        if (errors > 0) out.print("  " + errors + (errors > 1 ? " errors" : " error"));
+        out.println();
+    }
+}
@@ -122,7 +122,7 @@ public class BytecodeGenerator implements Visitor {
     public void caseFunDecl(FunDecl tree) {
         initialScope.enter(tree.sym);
         for (Tree arg : tree.args) generate(arg);
-        mv = cw.visitMethod(ACC_STATIC + ACC_PUBLIC, tree.name, "", null, null);
+        mv = cw.visitMethod(ACC_STATIC + ACC_PUBLIC, tree.name.toString(), "", null, null);
         mv.visitCode();
         generate(tree.body);
         mv.visitInsn(IRETURN);
@@ -181,10 +181,10 @@ public class BytecodeGenerator implements Visitor {
     public void caseIdent(Ident tree) {
         switch (tree.sym.kind) {
             case Kinds.FUNCTION:
-                ident = tree.name;
+                ident = tree.name.toString();
                 break;
             case Kinds.VARIABLE:
-                ident = tree.name;
+                ident = tree.name.toString();
                 break;
         }
     }
@@ -0,0 +1,623 @@
+package misc.risc;
+
+import misc.risc.Code.Instruction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Linear scan register allocator of the code of a function, or of the main
+ * expression, generated with virtual registers: the registers from
+ * Code.VIRTUAL. Before the allocation:
+ * - the instructions computing registers which are not live are removed,
+ * but the divisions, which can fail,
+ * - the moves of a register into a register defined only by them are
+ * propagated to its uses, unless the register moved is defined where the
+ * other is live, through the back edge of a loop as well.
+ * The live range of each virtual register is the interval of the
+ * instructions where it is live. The intervals are scanned by start and
+ * given the physical registers RC_MIN to RC_MAX, a move preferring the
+ * register of its source if it dies there. When they are all taken, the
+ * interval which ends last is spilled to a slot of the frame: it is loaded
+ * into a register from SCRATCH before each use and stored after each
+ * definition. The callee uses all the registers: those live across a call
+ * are saved before it into their slot unless it already holds their value,
+ * and restored after it, then the return address is loaded into LNK. The
+ * frame holding the slots is allocated on the
+ * stack by the function and its size is added to the c field of the
+ * instructions emitted by Code.frame.
+ */
+class Allocator implements RISC {
+
+    /**
+     * fields of an instruction
+     */
+    private static final int A = 1, B = 2, C = 4;
+
+    private final List<Instruction> code;
+
+    /**
+     * stack size at the frame
+     */
+    private final int frame;
+
+    /**
+     * pc of the first instruction
+     */
+    private final int start;
+
+    private final int n;
+
+    /**
+     * first virtual register of the code and number of them
+     */
+    private int low, count;
+
+    /**
+     * instructions executed after each one, n for the end of the code
+     */
+    private int[][] flow;
+
+    /**
+     * registers live before each instruction
+     */
+    private BitSet[] live;
+
+    /**
+     * physical register of each virtual one, -1 if it is spilled
+     */
+    private int[] registers;
+
+    /**
+     * slot of each virtual register spilled or saved, -1 if none
+     */
+    private int[] slots;
+
+    private int size = 0;
+
+    Allocator(List<Instruction> code, int frame, int start) {
+        this.code = code;
+        this.frame = frame;
+        this.start = start;
+        this.n = code.size();
+    }
+
+    /**
+     * returns the instructions with physical registers.
+     */
+    List<Instruction> allocate() {
+        low = Integer.MAX_VALUE;
+        int high = -1;
+        for (int i = 0; i < n; i++) {
+            Instruction instruction = get(i);
+            for (int field = A; field <= C; field <<= 1) {
+                if ((fields(instruction) & field) == 0) continue;
+                int register = field(instruction, field);
+                if (register < Code.VIRTUAL) continue;
+                low = Math.min(low, register);
+                high = Math.max(high, register);
+            }
+        }
+        count = high < 0 ? 0 : high - low + 1;
+        // only the pure instructions and the moves are removed: the flow stays the same
+        flow = new int[n][];
+        for (int i = 0; i < n; i++) flow[i] = edges(i);
+        do liveness();
+        while (eliminate());
+        propagate();
+        scan();
+        return rewrite();
+    }
+
+    private Instruction get(int i) {
+        return code.get(i);
+    }
+
+    // instruction formats
+
+    /**
+     * returns the fields of the instruction read as registers.
+     */
+    static int reads(Instruction instruction) {
+        switch (instruction.opcode) {
+            case CHK:
+                return A | C;
+            case CHKI:
+            case CHKIU:
+                return A;
+            case BREAK:
+            case BSR:
+            case JSR:
+                return 0;
+            case SYSCALL:
+                switch (instruction.c) {
+                    case SYS_IO_RD_CHR:
+                    case SYS_IO_RD_INT:
+                    case SYS_GET_TOTAL_MEM_SIZE:
+                        return 0;
+                    case SYS_GC_ALLOC:
+                        return B;
+                    case SYS_EXIT:
+                        return A;
+                    default:
+                        return A | B;
+                }
+            case LDW:
+            case LDB:
+            case POP:
+                return B;
+            case STW:
+            case STB:
+            case PSH:
+                return A | B;
+            case BEQ:
+            case BNE:
+            case BLT:
+            case BGE:
+            case BLE:
+            case BGT:
+                return A;
+            case RET:
+                return C;
+            default:
+                return instruction.opcode < ADDI ? B | C : B;
+        }
+    }
+
+    /**
+     * returns the fields of the instruction written as registers.
+     */
+    static int writes(Instruction instruction) {
+        switch (instruction.opcode) {
+            case CHK:
+            case CHKI:
+            case CHKIU:
+            case BREAK:
+            case BSR:
+            case JSR:
+            case STW:
+            case STB:
+            case BEQ:
+            case BNE:
+            case BLT:
+            case BGE:
+            case BLE:
+            case BGT:
+            case RET:
+                return 0;
+            case SYSCALL:
+                switch (instruction.c) {
+                    case SYS_IO_RD_CHR:
+                    case SYS_IO_RD_INT:
+                    case SYS_GET_TOTAL_MEM_SIZE:
+                    case SYS_GC_ALLOC:
+                        return A;
+                    default:
+                        return 0;
+                }
+            case PSH:
+                return B;
+            case POP:
+                return A | B;
+            default:
+                return A;
+        }
+    }
+
+    private static int fields(Instruction instruction) {
+        return instruction.removed ? 0 : reads(instruction) | writes(instruction);
+    }
+
+    private static int field(Instruction instruction, int field) {
+        return field == A ? instruction.a : field == B ? instruction.b : instruction.c;
+    }
+
+    private static void set(Instruction instruction, int field, int register) {
+        if (field == A) instruction.a = register;
+        else if (field == B) instruction.b = register;
+        else instruction.c = register;
+    }
+
+    /**
+     * returns true if removing the instruction only removes the register
+     * it writes.
+     */
+    private static boolean isPure(Instruction instruction) {
+        switch (instruction.opcode) {
+            case DIV:
+            case MOD:
+            case DIVI:
+            case MODI:
+            case DIVIU:
+            case MODIU:
+            case SYSCALL:
+            case POP:
+                return false;
+            case LDW:
+            case LDB:
+                return true;
+            default:
+                return writes(instruction) == A && (instruction.opcode <= ASHI
+                        || instruction.opcode >= ADDIU && instruction.opcode <= XORIU);
+        }
+    }
+
+    private static boolean isMove(Instruction instruction) {
+        return !instruction.removed && instruction.opcode == ADD && instruction.c == ZERO
+                && instruction.a >= Code.VIRTUAL && instruction.b >= Code.VIRTUAL && instruction.a != instruction.b;
+    }
+
+    private int[] successors(int i) {
+        return flow[i];
+    }
+
+    /**
+     * returns the instructions executed after i, n for the end of the code.
+     */
+    private int[] edges(int i) {
+        Instruction instruction = get(i);
+        if (instruction.removed) return new int[]{i + 1};
+        if (instruction.kind == Code.BRANCH) {
+            int target = i + instruction.c;
+            if (target < 0 || target > n) throw new Error("branch out of the function at " + (start + WORD_SIZE * i));
+            if (instruction.opcode == BEQ && instruction.a == ZERO) return new int[]{target};
+            return new int[]{i + 1, target};
+        }
+        if (instruction.opcode == RET) return instruction.call ? new int[]{i + 1} : new int[0];
+        return new int[]{i + 1};
+    }
+
+    /**
+     * sets or clears the virtual registers of the fields of the instruction.
+     */
+    private void registers(BitSet registers, Instruction instruction, int fields, boolean value) {
+        if (instruction.removed) return;
+        for (int field = A; field <= C; field <<= 1) {
+            if ((fields & field) == 0) continue;
+            int register = field(instruction, field);
+            if (register >= Code.VIRTUAL) registers.set(register - low, value);
+        }
+    }
+
+    // before the allocation
+
+    /**
+     * propagates the moves into registers defined only by them. The copy
+     * joins the class of the register moved, whose registers are all
+     * renamed to it at the end, their live ranges merged: a move is
+     * propagated unless the register moved is defined where a register of
+     * the class of the copy is live.
+     */
+    private void propagate() {
+        int[] definitions = new int[count];
+        List<List<Integer>> writers = new ArrayList<>();
+        for (int v = 0; v < count; v++) writers.add(new ArrayList<>());
+        BitSet written = new BitSet(count);
+        for (int i = 0; i < n; i++) {
+            registers(written, get(i), writes(get(i)), true);
+            for (int v = written.nextSetBit(0); v >= 0; v = written.nextSetBit(v + 1)) {
+                definitions[v]++;
+                writers.get(v).add(i);
+            }
+            written.clear();
+        }
+        // the register replacing each one, and the registers of each class, linked
+        int[] parents = new int[count];
+        int[] next = new int[count];
+        int[] last = new int[count];
+        for (int v = 0; v < count; v++) {
+            parents[v] = last[v] = v;
+            next[v] = -1;
+        }
+        BitSet merged = new BitSet(count);
+        for (int i = 0; i < n; i++) {
+            Instruction move = get(i);
+            if (!isMove(move)) continue;
+            int to = move.a - low, from = find(parents, move.b - low);
+            if (definitions[to] != 1 || from == to) continue;
+            boolean defined = false;
+            for (int v = to; v >= 0 && !defined; v = next[v]) {
+                defined = live[0].get(v);
+                for (int j : writers.get(from)) defined |= isLiveAfter(j, low + v);
+            }
+            if (defined) continue;
+            parents[to] = from;
+            next[last[from]] = to;
+            last[from] = last[to];
+            merged.set(to);
+            move.removed = true;
+            definitions[to] = 0;
+        }
+        if (merged.isEmpty()) return;
+        for (int i = 0; i < n; i++) {
+            Instruction instruction = get(i);
+            if (instruction.removed) continue;
+            int read = reads(instruction);
+            for (int field = A; field <= C; field <<= 1) {
+                if ((read & field) == 0) continue;
+                int register = field(instruction, field);
+                if (register >= Code.VIRTUAL) set(instruction, field, low + find(parents, register - low));
+            }
+        }
+        for (int i = 0; i <= n; i++) {
+            if (!live[i].intersects(merged)) continue;
+            BitSet copies = (BitSet) live[i].clone();
+            copies.and(merged);
+            live[i].andNot(copies);
+            for (int v = copies.nextSetBit(0); v >= 0; v = copies.nextSetBit(v + 1)) live[i].set(find(parents, v));
+        }
+    }
+
+    private static int find(int[] parents, int v) {
+        while (parents[v] != v) v = parents[v] = parents[parents[v]];
+        return v;
+    }
+
+    /**
+     * computes the registers live before each instruction.
+     */
+    private void liveness() {
+        live = new BitSet[n + 1];
+        for (int i = 0; i <= n; i++) live[i] = new BitSet();
+        BitSet in = new BitSet();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = n - 1; i >= 0; i--) {
+                Instruction instruction = get(i);
+                for (int successor : successors(i)) in.or(live[successor]);
+                registers(in, instruction, writes(instruction), false);
+                registers(in, instruction, reads(instruction), true);
+                if (in.equals(live[i])) {
+                    in.clear();
+                } else {
+                    BitSet out = live[i];
+                    live[i] = in;
+                    out.clear();
+                    in = out;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * removes the pure instructions whose register is not live after them,
+     * returns true if any is removed.
+     */
+    private boolean eliminate() {
+        boolean removed = false;
+        for (int i = 0; i < n; i++) {
+            Instruction instruction = get(i);
+            if (instruction.removed || instruction.a < Code.VIRTUAL || !isPure(instruction)) continue;
+            boolean used = false;
+            for (int successor : successors(i)) used |= live[successor].get(instruction.a - low);
+            if (!used) instruction.removed = removed = true;
+        }
+        return removed;
+    }
+
+    /**
+     * returns true if the register is live after the instruction i.
+     */
+    private boolean isLiveAfter(int i, int register) {
+        if (register < Code.VIRTUAL) return false;
+        boolean live = false;
+        for (int successor : successors(i)) live |= this.live[successor].get(register - low);
+        return live;
+    }
+
+    // allocation
+
+    /**
+     * assigns a physical register or a slot to each virtual register.
+     */
+    private void scan() {
+        int[] first = new int[count];
+        int[] last = new int[count];
+        Arrays.fill(first, -1);
+        int[] hints = new int[count];
+        Arrays.fill(hints, -1);
+        for (int i = 0; i < n; i++) {
+            Instruction instruction = get(i);
+            BitSet used = (BitSet) live[i].clone();
+            registers(used, instruction, fields(instruction), true);
+            for (int v = used.nextSetBit(0); v >= 0; v = used.nextSetBit(v + 1)) {
+                if (first[v] < 0) first[v] = i;
+                last[v] = i;
+            }
+            if (isMove(instruction)) hints[instruction.a - low] = instruction.b - low;
+        }
+        Integer[] order = new Integer[count];
+        for (int v = 0; v < count; v++) order[v] = v;
+        Arrays.sort(order, (x, y) -> first[x] - first[y]);
+        registers = new int[count];
+        slots = new int[count];
+        Arrays.fill(registers, -1);
+        Arrays.fill(slots, -1);
+        List<Integer> active = new ArrayList<>();
+        int[] owners = new int[Code.RC_MAX + 1];
+        Arrays.fill(owners, -1);
+        for (int v : order) {
+            if (first[v] < 0) continue;
+            for (int j = active.size() - 1; j >= 0; j--) {
+                int w = active.get(j);
+                if (last[w] > first[v]) continue;
+                active.remove(j);
+                owners[registers[w]] = -1;
+            }
+            int register = -1;
+            int hint = hints[v];
+            if (hint >= 0 && registers[hint] > 0 && owners[registers[hint]] < 0) register = registers[hint];
+            for (int r = Code.RC_MIN; r <= Code.RC_MAX && register < 0; r++)
+                if (owners[r] < 0) register = r;
+            if (register < 0) {
+                int spilled = v;
+                for (int w : active) if (last[w] > last[spilled]) spilled = w;
+                if (spilled == v) {
+                    slots[v] = size++;
+                    continue;
+                }
+                register = registers[spilled];
+                registers[spilled] = -1;
+                slots[spilled] = size++;
+                active.remove(Integer.valueOf(spilled));
+            }
+            registers[v] = register;
+            owners[register] = v;
+            active.add(v);
+        }
+    }
+
+    // rewriting
+
+    /**
+     * returns the stack size before the instruction: the generator counts a
+     * push before emitting it.
+     */
+    private static int depth(Instruction instruction) {
+        return instruction.opcode == PSH ? instruction.depth - instruction.c : instruction.depth;
+    }
+
+    private Instruction slot(int opcode, int register, int v, int depth) {
+        Instruction instruction = new Instruction(opcode, register, SP, depth - frame + WORD_SIZE * slots[v], Code.CONSTANT);
+        instruction.depth = depth;
+        return instruction;
+    }
+
+    /**
+     * returns the registers live across each call, which are saved before
+     * it and restored after it, null for the other instructions.
+     */
+    private BitSet[] calls() {
+        BitSet[] calls = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            Instruction instruction = get(i);
+            if (instruction.removed || instruction.opcode != RET || !instruction.call) continue;
+            calls[i] = (BitSet) live[i + 1].clone();
+            for (int v = calls[i].nextSetBit(0); v >= 0; v = calls[i].nextSetBit(v + 1)) {
+                if (registers[v] < 0) {
+                    calls[i].clear(v);
+                } else if (slots[v] < 0) {
+                    slots[v] = size++;
+                }
+            }
+        }
+        return calls;
+    }
+
+    /**
+     * returns the registers whose slot holds the value before each
+     * instruction: those saved or restored by a call and not written since.
+     */
+    private BitSet[] saved(BitSet[] calls) {
+        BitSet[] saved = new BitSet[n + 1];
+        saved[0] = new BitSet(count);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < n; i++) {
+                if (saved[i] == null) continue;
+                Instruction instruction = get(i);
+                BitSet out = (BitSet) saved[i].clone();
+                registers(out, instruction, writes(instruction), false);
+                if (calls[i] != null) out.or(calls[i]);
+                for (int successor : successors(i)) {
+                    if (saved[successor] == null) {
+                        saved[successor] = out;
+                        changed = true;
+                    } else {
+                        BitSet in = (BitSet) saved[successor].clone();
+                        in.and(out);
+                        if (!in.equals(saved[successor])) {
+                            saved[successor] = in;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+        return saved;
+    }
+
+    private List<Instruction> rewrite() {
+        BitSet[] calls = calls();
+        BitSet[] saved = saved(calls);
+        List<Instruction> result = new ArrayList<>();
+        int[] positions = new int[n + 1];
+        int[] self = new int[n];
+        for (int i = 0; i < n; i++) {
+            positions[i] = result.size();
+            Instruction instruction = get(i);
+            if (instruction.removed) continue;
+            int depth = depth(instruction);
+            if (calls[i] != null) {
+                BitSet stored = (BitSet) calls[i].clone();
+                if (saved[i] != null) stored.andNot(saved[i]);
+                for (int v = stored.nextSetBit(0); v >= 0; v = stored.nextSetBit(v + 1))
+                    result.add(slot(STW, registers[v], v, depth));
+            }
+            // the register read may have been propagated from a live one
+            if (instruction.freed)
+                instruction.freed = !isLiveAfter(i, instruction.opcode == ADD ? instruction.b : instruction.a);
+            // the spilled registers of the instruction and their scratch registers
+            int[] spilled = new int[3];
+            boolean[] loaded = new boolean[3];
+            int scratches = 0;
+            List<Instruction> stores = new ArrayList<>();
+            int read = reads(instruction), written = writes(instruction);
+            for (int field = A; field <= C; field <<= 1) {
+                if (((read | written) & field) == 0) continue;
+                int register = field(instruction, field);
+                if (register < Code.VIRTUAL) continue;
+                int v = register - low;
+                if (registers[v] > 0) {
+                    set(instruction, field, registers[v]);
+                    continue;
+                }
+                int k = 0;
+                while (k < scratches && spilled[k] != v) k++;
+                if (k == scratches) spilled[scratches++] = v;
+                int scratch = Code.SCRATCH + k;
+                if ((read & field) != 0 && !loaded[k]) {
+                    result.add(slot(LDW, scratch, v, depth));
+                    loaded[k] = true;
+                }
+                if ((written & field) != 0) stores.add(slot(STW, scratch, v, depth));
+                set(instruction, field, scratch);
+            }
+            if (instruction.call) {
+                // the return address, after the RET
+                int address = start + WORD_SIZE * (result.size() + 2);
+                if (address >= 32768) address += WORD_SIZE * 2;
+                Code.address(result, LNK, address, depth);
+            }
+            self[i] = result.size();
+            result.add(instruction);
+            result.addAll(stores);
+            if (calls[i] != null) {
+                int after = i + 1 < n ? depth(get(i + 1)) : depth;
+                BitSet restored = calls[i];
+                for (int v = restored.nextSetBit(0); v >= 0; v = restored.nextSetBit(v + 1))
+                    result.add(slot(LDW, registers[v], v, after));
+            }
+        }
+        positions[n] = result.size();
+        for (int i = 0; i < n; i++) {
+            Instruction instruction = get(i);
+            if (instruction.removed) continue;
+            if (instruction.kind == Code.BRANCH) {
+                instruction.c = positions[i + instruction.c] - self[i];
+            } else if (instruction.kind == Code.FRAME) {
+                instruction.c += WORD_SIZE * size;
+                instruction.kind = Code.CONSTANT;
+            } else if (instruction.kind != Code.CONSTANT) {
+                int target = (instruction.target - start) / WORD_SIZE;
+                if (target >= 0 && target <= n) instruction.target = start + WORD_SIZE * positions[target];
+            }
+        }
+        return result;
+    }
+}
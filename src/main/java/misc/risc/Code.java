@@ -1,34 +1,116 @@
 package misc.risc;
 
+import misc.Events;
 import misc.Global;
 import misc.risc.Item.RegisterItem;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+/**
+ * Instructions of a program. The code of a function, between enter() and
+ * leave(), uses virtual registers from VIRTUAL, given physical registers by
+ * the Allocator when it leaves. The pcs given while the code is emitted are
+ * those of the instructions emitted: the peephole optimizer removes
+ * instructions before they are written, so the branches, the return
+ * addresses and the function addresses are relocated when they are written.
+ * The peephole optimizer is applied until nothing changes, it removes:
+ * - the moves of a register into itself, the additions of zero to the
+ * stack pointer and the branches never taken,
+ * - the branches to the next instruction,
+ * - a branch over an unconditional branch, replaced by the opposite branch,
+ * - a move of a register freed by it, the previous instruction then
+ * computes the moved value in place,
+ * - a boolean materialized by CondItem.load then tested by a branch freeing
+ * it, replaced by a branch on the condition.
+ * Only the instructions that are not branch targets, function entries or
+ * return addresses are merged with the previous ones.
+ */
 public class Code implements RISC {
 
-    public static final int RC_MIN = 1;
+    /**
+     * registers of the first ARGS arguments of a call, the others are
+     * pushed on the stack
+     */
+    public static final int ARG = 1;
 
-    public static final int RC_MAX = 28;
+    public static final int ARGS = 4;
+
+    /**
+     * physical registers allocated to the virtual ones
+     */
+    public static final int RC_MIN = ARG + ARGS;
+
+    public static final int RC_MAX = 25;
+
+    /**
+     * first of the three registers loading the spilled registers
+     */
+    public static final int SCRATCH = 26;
+
+    /**
+     * first virtual register
+     */
+    public static final int VIRTUAL = 32;
+
+    /**
+     * kinds of the c field of an instruction: a constant, the offset of a
+     * branch in instructions emitted, an address loaded, whole or by its
+     * high and low halves, or a constant to which the size of the frame is
+     * added.
+     */
+    static final int CONSTANT = 0, BRANCH = 1, ADDRESS = 2, HIGH = 3, LOW = 4, FRAME = 5;
 
     private final Global global;
 
-    private final RegisterItem[] registers;
+    private final List<Instruction> code;
+
+    /**
+     * number of instructions already flushed
+     */
+    private int base;
+
+    /**
+     * number of instructions already written by flush
+     */
+    private int written;
 
-    private final List code;
+    /**
+     * index of each instruction flushed in the code written
+     */
+    private int[] positions = new int[256];
 
+    /**
+     * pcs of the function entries
+     */
+    private final Set<Integer> entries = new HashSet<>();
+
+    /**
+     * number of registers held by the generator, from RC_MIN
+     */
     private int rc;
 
+    private int nextRegister = VIRTUAL;
+
+    /**
+     * index of the first instruction of the function generated, -1 if none
+     */
+    private int region = -1;
+
+    /**
+     * stack size at the frame of the function generated
+     */
+    private int frame;
+
     private int stackSize;
 
     public Code(Global global) {
         this.global = global;
-        this.registers = new RegisterItem[32];
-        for (int i = 0; i < registers.length; i++)
-            registers[i] = new RegisterItem(i);
-        this.code = new ArrayList();
+        this.code = new ArrayList<>();
         this.rc = RC_MIN;
         this.stackSize = 0;
     }
@@ -37,25 +119,81 @@ public class Code implements RISC {
         return rc;
     }
 
+    /**
+     * returns a new virtual register, held until it is freed.
+     */
     public RegisterItem getRegister() {
-        if (rc <= RC_MAX) return registers[rc++];
-        global.error(0, "not enough registers");
-        return registers[ZERO];
+        rc++;
+        return new RegisterItem(nextRegister++);
     }
 
     public void freeRegister(RegisterItem item) {
-        if (item.register < RC_MIN || item.register > RC_MAX) return;
-        if (item.register == --rc) return;
-        throw new Error("last register allocated " + rc + ", " +
-                "trying to free register " + item.register);
+        if (item.register < VIRTUAL) return;
+        if (rc-- > RC_MIN) return;
+        throw new Error("trying to free register " + item.register + ", none allocated");
+    }
+
+    /**
+     * returns a new virtual register holding a variable.
+     */
+    public int getVariable() {
+        return nextRegister++;
+    }
+
+    /**
+     * Starts the code of a function, or of the main expression, with
+     * virtual registers: allocates its frame on the stack.
+     */
+    public void enter() {
+        region = code.size();
+        frame = stackSize;
+        frame(SUBI, SP, SP, 0);
+    }
+
+    /**
+     * ends the code of the function: allocates its registers and its frame.
+     */
+    public void leave() {
+        List<Instruction> function = code.subList(region, code.size());
+        List<Instruction> allocated = new Allocator(function, frame, WORD_SIZE * (base + region)).allocate();
+        function.clear();
+        function.addAll(allocated);
+        region = -1;
+    }
+
+    /**
+     * emits an instruction whose c field is increased by the size of the
+     * frame of the function: an access to the stack above the frame.
+     */
+    public int frame(int opcode, int a, int b, int c) {
+        int pc = emit(opcode, a, b, c);
+        last().kind = FRAME;
+        return pc;
     }
 
     public int pc() {
-        return WORD_SIZE * code.size();
+        return WORD_SIZE * (base + code.size());
+    }
+
+    /**
+     * returns the pc of the next instruction, the entry of a function.
+     */
+    public int entry() {
+        int pc = pc();
+        entries.add(pc);
+        return pc;
+    }
+
+    /**
+     * returns the number of instructions emitted.
+     */
+    public int size() {
+        return base + code.size();
     }
 
     public void fixup(int pc, int to) {
-        ((Instruction) code.get(pc / WORD_SIZE)).c = (to - pc) / WORD_SIZE;
+        if (pc / WORD_SIZE < base) throw new Error("instruction " + pc + " already flushed");
+        (code.get(pc / WORD_SIZE - base)).c = (to - pc) / WORD_SIZE;
     }
 
     public void incStackSize(int bytes) {
@@ -84,34 +222,438 @@ public class Code implements RISC {
 
     public int emit(int opcode, int a, int b, int c) {
         int pc = pc();
-        code.add(new Instruction(opcode, a, b, c));
+        add(new Instruction(opcode, a, b, c, isBranch(opcode) ? BRANCH : CONSTANT));
+        return pc;
+    }
+
+    private void add(Instruction instruction) {
+        instruction.depth = stackSize;
+        code.add(instruction);
+    }
+
+    /**
+     * emits the move of register from, freed after it, into register to.
+     */
+    public int move(int to, int from) {
+        int pc = emit(ADD, to, from, ZERO);
+        last().freed = true;
+        return pc;
+    }
+
+    /**
+     * emits the branch on register, freed after it, to fixup.
+     */
+    public int branch(int opcode, int register) {
+        int pc = emit(opcode, register, 0);
+        last().freed = true;
+        return pc;
+    }
+
+    /**
+     * emits the load of the code address into register.
+     */
+    public int address(int register, int address) {
+        int pc = pc();
+        address(code, register, address, stackSize);
         return pc;
     }
 
+    /**
+     * adds the load of the code address into register to the instructions:
+     * an ADDI, or if the address does not fit in 15 bits, an ADDI of its
+     * high half shifted and added to its low half.
+     */
+    static void address(List<Instruction> code, int register, int address, int depth) {
+        Instruction[] load;
+        if (address < 32768) {
+            load = new Instruction[]{new Instruction(ADDI, register, ZERO, address, ADDRESS)};
+        } else {
+            load = new Instruction[]{
+                    new Instruction(ADDI, register, ZERO, address / 32768, HIGH),
+                    new Instruction(LSHI, register, register, 15, CONSTANT),
+                    new Instruction(ADDI, register, register, address % 32768, LOW)};
+        }
+        for (Instruction instruction : load) {
+            instruction.target = address;
+            instruction.depth = depth;
+            code.add(instruction);
+        }
+    }
+
+    /**
+     * emits the call of the function whose address is in register. The
+     * return address is loaded into LNK by the register allocator, after
+     * the registers are saved.
+     */
+    public void call(int register) {
+        emit(RET, register);
+        last().call = true;
+    }
+
+    private Instruction last() {
+        return code.get(code.size() - 1);
+    }
+
     public void write(PrintWriter out) {
+        write(out, "Code.write");
+    }
+
+    /**
+     * writes the instructions, recorded as the phase.
+     */
+    private void write(PrintWriter out, String phase) {
+        Events.Phase event = Events.phase(phase);
+        optimize();
+        int[] current = positions();
         for (int i = 0; i < code.size(); i++) {
-            String label = Integer.toString(WORD_SIZE * i);
+            Instruction instruction = code.get(i);
+            if (instruction.removed) continue;
+            String label = Integer.toString(WORD_SIZE * current[i]);
             while (label.length() < 4) label = '0' + label;
             out.print("/* " + label + " */ ");
-            out.print(code.get(i));
+            out.print(instruction.toString(relocate(instruction, i, current)));
             out.println();
         }
+        if (event != null && event.shouldCommit()) {
+            event.source = global.source;
+            event.instructions = current[code.size()] - written;
+            event.commit();
+        }
+    }
+
+    /**
+     * writes the instructions emitted since the last flush, and forgets them.
+     */
+    public void flush(PrintWriter out) {
+        write(out, "Code.flush");
+        int[] current = positions();
+        if (positions.length < base + current.length)
+            positions = Arrays.copyOf(positions, Math.max(2 * positions.length, base + current.length));
+        System.arraycopy(current, 0, positions, base, current.length);
+        written = current[code.size()];
+        base += code.size();
+        code.clear();
+        entries.clear();
+    }
+
+    /**
+     * returns the index written of each instruction not flushed and of the
+     * next one, the index of the next instruction kept for those removed.
+     */
+    private int[] positions() {
+        int[] current = new int[code.size() + 1];
+        int position = written;
+        for (int i = 0; i < code.size(); i++) {
+            current[i] = position;
+            if (!(code.get(i)).removed) position++;
+        }
+        current[code.size()] = position;
+        return current;
+    }
+
+    /**
+     * returns the index written of the instruction emitted at index.
+     */
+    private int position(int index, int[] current) {
+        return index < base ? positions[index] : current[index - base];
+    }
+
+    /**
+     * returns the c field written of the instruction at i.
+     */
+    private int relocate(Instruction instruction, int i, int[] current) {
+        switch (instruction.kind) {
+            case BRANCH:
+                return position(base + i + instruction.c, current) - current[i];
+            case ADDRESS:
+                return WORD_SIZE * position(instruction.target / WORD_SIZE, current);
+            case HIGH:
+                return WORD_SIZE * position(instruction.target / WORD_SIZE, current) / 32768;
+            case LOW:
+                return WORD_SIZE * position(instruction.target / WORD_SIZE, current) % 32768;
+            default:
+                return instruction.c;
+        }
+    }
+
+    // peephole optimizer
+
+    /**
+     * applies the peephole optimizer to the instructions not flushed until
+     * nothing changes.
+     */
+    private void optimize() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] targets = targets();
+            for (int i = next(-1); i < code.size(); i = next(i)) {
+                if (optimize(i, targets)) {
+                    changed = true;
+                    targets = targets();
+                }
+            }
+        }
+    }
+
+    /**
+     * applies the first rule matching the instructions from i, returns
+     * true if one is applied.
+     */
+    private boolean optimize(int i, int[] targets) {
+        Instruction instruction = get(i);
+        if (isNoop(instruction)) {
+            instruction.removed = true;
+            return true;
+        }
+        int j = next(i);
+        if (instruction.kind == BRANCH && target(i) == j) {
+            // branch to the next instruction
+            instruction.removed = true;
+            return true;
+        }
+        if (j == code.size()) return false;
+        Instruction second = get(j);
+        if (instruction.kind == BRANCH && isJump(second) && targets[j] == 0 && target(i) == next(j)) {
+            // branch over a branch
+            instruction.opcode = negate(instruction.opcode);
+            instruction.c = second.c + j - i;
+            second.removed = true;
+            return true;
+        }
+        if (second.freed && second.opcode == ADD && targets[j] == 0 && writes(instruction)
+                && instruction.a == second.b) {
+            // move of the register computed by the previous instruction
+            instruction.a = second.a;
+            second.removed = true;
+            return true;
+        }
+        return instruction.kind == BRANCH && isBoolean(i, targets);
+    }
+
+    /**
+     * Replaces the boolean materialized by the branch at i and tested by a
+     * branch freeing it, by a branch on the condition:
+     * <pre>
+     *     i:  Bc x L0      Bc x L0: ADDI r ZERO v1
+     *         ADDI r ZERO v1
+     *         BEQ ZERO L1
+     *     L0: ADDI r ZERO v0
+     *     L1: Bt r T
+     * </pre>
+     * The branch at i is then taken to T if Bt is taken on v0 only, the
+     * opposite branch if Bt is taken on v1 only.
+     */
+    private boolean isBoolean(int i, int[] targets) {
+        int i1 = next(i), i2 = next(i1), i3 = next(i2), i4 = next(i3);
+        if (i4 == code.size()) return false;
+        Instruction one = get(i1), jump = get(i2), zero = get(i3), test = get(i4);
+        if (!isConstant(one) || !isJump(jump) || !isConstant(zero) || one.a != zero.a) return false;
+        if (test.kind != BRANCH || !test.freed || test.a != one.a) return false;
+        if (target(i) != i3 || target(i2) != i4) return false;
+        if (targets[i1] != 0 || targets[i2] != 0 || targets[i3] != 1 || targets[i4] != 1) return false;
+        boolean taken0 = isTaken(test.opcode, zero.c);
+        boolean taken1 = isTaken(test.opcode, one.c);
+        Instruction branch = get(i);
+        int to = test.c + i4 - i;
+        if (taken0 && taken1) {
+            branch.opcode = BEQ;
+            branch.a = ZERO;
+            branch.c = to;
+        } else if (taken0) {
+            branch.c = to;
+        } else if (taken1) {
+            branch.opcode = negate(branch.opcode);
+            branch.c = to;
+        } else {
+            branch.removed = true;
+        }
+        one.removed = jump.removed = zero.removed = test.removed = true;
+        return true;
+    }
+
+    private Instruction get(int i) {
+        return code.get(i);
+    }
+
+    /**
+     * returns the index of the next instruction kept after i, the size of
+     * the code if there is none.
+     */
+    private int next(int i) {
+        do i++;
+        while (i < code.size() && get(i).removed);
+        return i;
+    }
+
+    /**
+     * returns the index of the instruction kept the branch at i jumps to,
+     * -1 if it is flushed.
+     */
+    private int target(int i) {
+        int target = i + get(i).c;
+        if (target < 0) return -1;
+        return target > code.size() ? code.size() : next(target - 1);
+    }
+
+    /**
+     * returns the number of branches, function entries and return addresses
+     * to each instruction kept.
+     */
+    private int[] targets() {
+        int[] targets = new int[code.size() + 1];
+        for (int i = 0; i < code.size(); i++) {
+            Instruction instruction = get(i);
+            if (instruction.removed) continue;
+            if (instruction.kind == BRANCH) {
+                int target = target(i);
+                if (target >= 0) targets[target]++;
+            } else if (instruction.kind == ADDRESS || instruction.kind == HIGH) {
+                target(instruction.target, targets);
+            }
+        }
+        for (int entry : entries) target(entry, targets);
+        return targets;
+    }
+
+    private void target(int pc, int[] targets) {
+        int index = pc / WORD_SIZE - base;
+        if (index >= 0 && index <= code.size()) targets[next(index - 1)]++;
+    }
+
+    private static boolean isBranch(int opcode) {
+        return opcode >= BEQ && opcode <= BGT;
+    }
+
+    /**
+     * returns true if the instruction is an unconditional branch.
+     */
+    private static boolean isJump(Instruction instruction) {
+        return instruction.opcode == BEQ && instruction.a == ZERO && instruction.kind == BRANCH;
+    }
+
+    /**
+     * returns true if the instruction loads a constant, ADDI r ZERO c.
+     */
+    private static boolean isConstant(Instruction instruction) {
+        return instruction.opcode == ADDI && instruction.b == ZERO && instruction.kind == CONSTANT;
+    }
+
+    /**
+     * returns true if the instruction has no effect.
+     */
+    private static boolean isNoop(Instruction instruction) {
+        switch (instruction.opcode) {
+            case ADDI:
+            case SUBI:
+            case ORI:
+            case XORI:
+            case LSHI:
+            case ASHI:
+                return instruction.a == instruction.b && instruction.c == 0 && instruction.kind == CONSTANT;
+            case ADD:
+            case SUB:
+            case OR:
+            case XOR:
+                return instruction.a == instruction.b && instruction.c == ZERO;
+            case BNE:
+                return instruction.a == ZERO;
+            default:
+                return false;
+        }
     }
 
-    private static class Instruction {
-        public final int opcode;
-        public final int a;
-        public final int b;
+    /**
+     * returns true if the instruction only writes its register a.
+     */
+    private static boolean writes(Instruction instruction) {
+        switch (instruction.opcode) {
+            case CHK:
+            case CHKI:
+            case CHKIU:
+            case BREAK:
+            case SYSCALL:
+                return false;
+            case LDW:
+            case LDB:
+                return true;
+            default:
+                return instruction.opcode < LDW || instruction.opcode >= ADDIU && instruction.opcode <= XORIU;
+        }
+    }
+
+    private static boolean isTaken(int opcode, int value) {
+        switch (opcode) {
+            case BEQ:
+                return value == 0;
+            case BNE:
+                return value != 0;
+            case BLT:
+                return value < 0;
+            case BGE:
+                return value >= 0;
+            case BLE:
+                return value <= 0;
+            default:
+                return value > 0;
+        }
+    }
+
+    private static int negate(int opcode) {
+        switch (opcode) {
+            case BEQ:
+                return BNE;
+            case BNE:
+                return BEQ;
+            case BLT:
+                return BGE;
+            case BGE:
+                return BLT;
+            case BLE:
+                return BGT;
+            default:
+                return BLE;
+        }
+    }
+
+    static class Instruction {
+        public int opcode;
+        public int a;
+        public int b;
         public int c;
+        public int kind;
+
+        /**
+         * code address loaded
+         */
+        public int target;
+
+        /**
+         * stack size when the instruction is emitted
+         */
+        public int depth;
+
+        /**
+         * true if the instruction is the RET of a call
+         */
+        public boolean call;
+
+        /**
+         * true if the register read is freed after the instruction
+         */
+        public boolean freed;
+
+        public boolean removed;
 
-        public Instruction(int opcode, int a, int b, int c) {
+        public Instruction(int opcode, int a, int b, int c, int kind) {
             this.opcode = opcode;
             this.a = a;
             this.b = b;
             this.c = c;
+            this.kind = kind;
         }
 
-        public String toString() {
+        public String toString(int c) {
             StringBuffer buffer = new StringBuffer();
             buffer.append(mnemonics[opcode]);
             if (a != Integer.MIN_VALUE) buffer.append(' ').append(a);
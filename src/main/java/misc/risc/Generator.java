@@ -2,10 +2,11 @@ package misc.risc;
 
 import misc.*;
 import misc.Tree.*;
+import misc.risc.Item.AddressItem;
 import misc.risc.Item.CondItem;
 import misc.risc.Item.ImmediateItem;
 import misc.risc.Item.RegisterItem;
-import misc.risc.Item.StackItem;
+import misc.risc.Item.VariableItem;
 
 
 public class Generator implements Visitor, RISC {
@@ -23,12 +24,52 @@ public class Generator implements Visitor, RISC {
     }
 
     public Code generate(Scope scope, Tree tree) {
+        Events.Phase event = Events.phase("Generator.generate");
         code = new Code(global);
         initialScope = scope;
         tree.apply(this);
+        checkRegisters();
+        if (event != null && event.shouldCommit()) {
+            event.source = global.source;
+            event.nodes = new TreeCounter().count(tree).nodes;
+            event.instructions = code.size();
+            event.commit();
+        }
+        return code;
+    }
+
+    /**
+     * Starts the code of a program generated one declaration at a time:
+     * emits the initialization and the predefined functions. The
+     * declarations are then generated by declaration() and the main
+     * expression by end(), the code can be flushed in between.
+     */
+    public Code begin(Scope scope) {
+        code = new Code(global);
+        initialScope = scope;
+        code.fixup(prologue(), code.pc());
+        return code;
+    }
+
+    /**
+     * generates a declaration. The main expression is not known yet, so the
+     * declaration is preceded by a branch over it.
+     */
+    public void declaration(Tree tree) {
+        int labelBranchOver = code.emit(BEQ, ZERO, 0);
+        generate(tree);
+        code.fixup(labelBranchOver, code.pc());
+        checkRegisters();
+    }
+
+    public void end(Tree expr) {
+        main(expr);
+        checkRegisters();
+    }
+
+    private void checkRegisters() {
         if (code.rc() != Code.RC_MIN) throw new Error(
                 "registers have not been freed: rc = " + code.rc());
-        return code;
     }
 
     private Item generate(Tree tree) {
@@ -49,6 +90,21 @@ public class Generator implements Visitor, RISC {
     }
 
     public void caseProgram(Program tree) {
+        int labelBranchToStart = prologue();
+
+        // generate func
+        generate(tree.decls);
+
+        // generate main expression
+        code.fixup(labelBranchToStart, code.pc());
+        main(tree.expr);
+    }
+
+    /**
+     * emits the initialization and the predefined functions, returns the
+     * branch to the main expression.
+     */
+    private int prologue() {
         // init stack pointer
         code.emit(SYSCALL, SP, 0, SYS_GET_TOTAL_MEM_SIZE);
 
@@ -66,94 +122,112 @@ public class Generator implements Visitor, RISC {
         // predef functions
 
         //printInt(Int)
-        Symbol sym = initialScope.lookup("printInt");
-        sym.offset = code.pc();
-        RegisterItem ritem = code.getRegister();
-        code.freeRegister(ritem);
-        code.emit(LDW, ritem.register, SP, 0);
-        code.emit(SYSCALL, ritem.register, 0, SYS_IO_WR_INT);
-        code.emit(ADDI, SP, SP, 4);
+        Symbol sym = initialScope.lookup(global.names.enter("printInt"));
+        sym.offset = code.entry();
+        code.emit(SYSCALL, Code.ARG, 0, SYS_IO_WR_INT);
         code.emit(RET, LNK);
 
         //printChar(Int)
-        sym = initialScope.lookup("printChar");
-        sym.offset = code.pc();
-        ritem = code.getRegister();
-        code.freeRegister(ritem);
-        code.emit(LDW, ritem.register, SP, 0);
-        code.emit(SYSCALL, ritem.register, 0, SYS_IO_WR_CHR);
-        code.emit(ADDI, SP, SP, 4);
+        sym = initialScope.lookup(global.names.enter("printChar"));
+        sym.offset = code.entry();
+        code.emit(SYSCALL, Code.ARG, 0, SYS_IO_WR_CHR);
         code.emit(RET, LNK);
 
         //readInt()
-        sym = initialScope.lookup("readInt");
-        sym.offset = code.pc();
+        sym = initialScope.lookup(global.names.enter("readInt"));
+        sym.offset = code.entry();
         code.emit(SYSCALL, RES, 0, SYS_IO_RD_INT);
         code.emit(RET, LNK);
 
         //readChar()
-        sym = initialScope.lookup("readChar");
-        sym.offset = code.pc();
+        sym = initialScope.lookup(global.names.enter("readChar"));
+        sym.offset = code.entry();
         code.emit(SYSCALL, RES, 0, SYS_IO_RD_CHR);
         code.emit(RET, LNK);
 
-        // generate func
-        generate(tree.decls);
+        return labelBranchToStart;
+    }
 
-        // generate main expression
-        code.fixup(labelBranchToStart, code.pc());
-        generate(tree.expr).freeRegisters(code);
+    private void main(Tree expr) {
+        code.enter();
+        generate(expr).freeRegisters(code);
 
         // exit
         code.emit(RET, ZERO);
+        code.leave();
     }
 
 
     public void caseFunDecl(FunDecl tree) {
+        Events.Declaration event = Events.declaration();
+        int start = code.size();
+        function(tree);
+        if (event != null && event.shouldCommit()) {
+            TreeCounter counter = new TreeCounter().count(tree);
+            if (counter.nodes < Events.LARGE) return;
+            event.source = global.source;
+            event.function = tree.name.toString();
+            event.nodes = counter.nodes;
+            event.symbols = counter.symbols;
+            event.instructions = code.size() - start;
+            event.commit();
+        }
+    }
+
+    private void function(FunDecl tree) {
         //function prologue
-        tree.sym.offset = code.pc();
+        tree.sym.offset = code.entry();
 
-        //alloc params
-        for (int i = 0; i < tree.args.length; i++) {
-            generate(tree.args[i]);
-            ((Tree.Formal) tree.args[i]).sym.offset = (i + 1) * WORD_SIZE;
-        }
+        //alloc params pushed on the stack
+        for (int i = Code.ARGS; i < tree.args.length; i++) generate(tree.args[i]);
 
         code.incStackSize(WORD_SIZE);
         code.emit(PSH, LNK, SP, WORD_SIZE);
+        code.enter();
+
+        //load params
+        for (int i = 0; i < tree.args.length; i++) {
+            Symbol sym = ((Tree.Formal) tree.args[i]).sym;
+            sym.register = code.getVariable();
+            if (i < Code.ARGS) code.move(sym.register, Code.ARG + i);
+            else code.frame(LDW, sym.register, SP, code.getStackSize() - (i - Code.ARGS + 1) * WORD_SIZE);
+        }
 
         //body
         RegisterItem ritem = generate(tree.body).load(code);
-        code.emit(ADD, RES, ritem.register, ZERO);
+        code.move(RES, ritem.register);
         code.freeRegister(ritem);
 
         //epilogue
+        code.frame(ADDI, SP, SP, 0);
         code.emit(POP, LNK, SP, code.getStackSize());
         code.decStackSize(code.getStackSize());
         code.emit(RET, LNK);
+        code.leave();
     }
 
     public void caseVarDecl(VarDecl tree) {
         RegisterItem value = generate(tree.value).load(code);
-        code.incStackSize(WORD_SIZE);
-        code.emit(PSH, value.register, SP, WORD_SIZE);
+        tree.sym.register = code.getVariable();
+        code.move(tree.sym.register, value.register);
         code.freeRegister(value);
-        tree.sym.offset = code.getStackSize();
     }
 
+    /**
+     * The first Code.ARGS arguments are passed in the registers from
+     * Code.ARG, moved there once the arguments and the function are
+     * evaluated, the others are pushed on the stack. The registers live
+     * across the call are saved by the register allocator.
+     */
     public void caseFunCall(FunCall tree) {
-        int nbrReg = code.rc() - 1;
-
-        //save registers
-        for (int i = nbrReg; i > 0; i--) {
-            code.incStackSize(WORD_SIZE);
-            code.emit(PSH, i, SP, WORD_SIZE);
-            code.freeRegister(new RegisterItem(i));
-        }
-
-        //stack params
+        //params
+        RegisterItem[] args = new RegisterItem[Math.min(tree.args.length, Code.ARGS)];
         for (int i = 0; i < tree.args.length; i++) {
             RegisterItem left = generate(tree.args[i]).load(code);
+            if (i < Code.ARGS) {
+                args[i] = left;
+                continue;
+            }
             code.freeRegister(left);
             code.incStackSize(WORD_SIZE);
             code.emit(PSH, left.register, SP, WORD_SIZE);
@@ -161,16 +235,13 @@ public class Generator implements Visitor, RISC {
 
         //call
         Item fun = generate(tree.expression);
+        for (int i = 0; i < args.length; i++) {
+            code.move(Code.ARG + i, args[i].register);
+            code.freeRegister(args[i]);
+        }
         fun.call(code);
 
-        code.decStackSize(tree.args.length * WORD_SIZE);
-
-        //restore registers
-        for (int i = 0; i < nbrReg; i++) {
-            RegisterItem ritem = code.getRegister();
-            code.decStackSize(WORD_SIZE);
-            code.emit(POP, ritem.register, SP, WORD_SIZE);
-        }
+        code.decStackSize(Math.max(tree.args.length - Code.ARGS, 0) * WORD_SIZE);
 
         //return result
         RegisterItem ritem = code.getRegister();
@@ -206,14 +277,14 @@ public class Generator implements Visitor, RISC {
 
         RegisterItem ritem = code.getRegister();
         RegisterItem thenR = generate(tree.thenp).load(code);
-        code.emit(ADDI, ritem.register, thenR.register, 0);
+        code.move(ritem.register, thenR.register);
         code.freeRegister(thenR);
 
         int jmpAdr2 = code.pc();
         code.emit(BEQ, 0, 0);
         code.fixup(jmpAdr1, code.pc());
         RegisterItem elseR = generate(tree.elsep).load(code);
-        code.emit(ADDI, ritem.register, elseR.register, 0);
+        code.move(ritem.register, elseR.register);
         code.freeRegister(elseR);
         code.fixup(jmpAdr2, code.pc());
 
@@ -222,8 +293,7 @@ public class Generator implements Visitor, RISC {
 
     public void caseAssign(Assign tree) {
         RegisterItem ritem = generate(tree.value).load(code);
-        int diff = code.getStackSize() - tree.sym.offset;
-        code.emit(STW, ritem.register, SP, diff);
+        code.move(tree.sym.register, ritem.register);
         code.freeRegister(ritem);
         item = new ImmediateItem(0);
     }
@@ -231,25 +301,20 @@ public class Generator implements Visitor, RISC {
     public void caseIdent(Ident tree) {
         switch (tree.sym.kind) {
             case Kinds.FUNCTION:
-                item = new ImmediateItem(tree.sym.offset);
+                item = new AddressItem(tree.sym.offset);
                 break;
             case Kinds.VARIABLE:
-                item = new StackItem(tree.sym.offset);
+                item = new VariableItem(tree.sym.register);
                 break;
         }
     }
 
     public void caseBlock(Block tree) {
-        int old_stack_size = code.getStackSize();
         for (int i = 0; i < tree.statements.length; i++) {
             Item item = generate(tree.statements[i]);
             if (item != null) item.freeRegisters(code);
         }
-        RegisterItem ritem = generate(tree.expression).load(code);
-        int new_stack_size = code.getStackSize();
-        code.decStackSize(new_stack_size - old_stack_size);
-        code.emit(ADDI, SP, SP, new_stack_size - old_stack_size);
-        item = ritem;
+        item = generate(tree.expression).load(code);
     }
 
     public void caseUnitLit(UnitLit tree) {
@@ -267,129 +332,47 @@ public class Generator implements Visitor, RISC {
     public void caseOperation(Operation tree) {
         switch (tree.operator) {
             case Tokens.PLUS:
-                RegisterItem left = generate(tree.left).load(code);
-                RegisterItem right = generate(tree.right).load(code);
-                code.freeRegister(right);
-                code.freeRegister(left);
-                RegisterItem ritem = code.getRegister();
-                code.emit(ADD, ritem.register, left.register, right.register);
-                item = ritem;
+                item = arithmetic(tree, ADD, true);
                 break;
 
             case Tokens.MINUS:
-                left = generate(tree.left).load(code);
-                right = generate(tree.right).load(code);
-                code.freeRegister(right);
-                code.freeRegister(left);
-                ritem = code.getRegister();
-                code.emit(SUB, ritem.register, left.register, right.register);
-                item = ritem;
+                item = arithmetic(tree, SUB, false);
                 break;
 
             case Tokens.MUL:
-                left = generate(tree.left).load(code);
-                right = generate(tree.right).load(code);
-                code.freeRegister(right);
-                code.freeRegister(left);
-                ritem = code.getRegister();
-                code.emit(MUL, ritem.register, left.register, right.register);
-                item = ritem;
+                item = arithmetic(tree, MUL, true);
                 break;
 
             case Tokens.DIV:
-                left = generate(tree.left).load(code);
-                right = generate(tree.right).load(code);
-                code.freeRegister(right);
-                code.freeRegister(left);
-                ritem = code.getRegister();
-                code.emit(DIV, ritem.register, left.register, right.register);
-                item = ritem;
+                item = arithmetic(tree, DIV, false);
                 break;
 
             case Tokens.MOD:
-                left = generate(tree.left).load(code);
-                right = generate(tree.right).load(code);
-                code.freeRegister(right);
-                code.freeRegister(left);
-                ritem = code.getRegister();
-                code.emit(MOD, ritem.register, left.register, right.register);
-                item = ritem;
+                item = arithmetic(tree, MOD, false);
                 break;
 
             case Tokens.EQU:
-                left = generate(tree.left).load(code);
-                right = generate(tree.right).load(code);
-                code.freeRegister(right);
-                code.freeRegister(left);
-                ritem = code.getRegister();
-                code.emit(CMP, ritem.register, left.register, right.register);
-                item = new CondItem(ritem, BNE);
-                break;
-
             case Tokens.NOTEQ:
-                left = generate(tree.left).load(code);
-                right = generate(tree.right).load(code);
-                code.freeRegister(right);
-                code.freeRegister(left);
-                ritem = code.getRegister();
-                code.emit(CMP, ritem.register, left.register, right.register);
-                item = new CondItem(ritem, BEQ);
-                break;
-
             case Tokens.LESS:
-                left = generate(tree.left).load(code);
-                right = generate(tree.right).load(code);
-                code.freeRegister(right);
-                code.freeRegister(left);
-                ritem = code.getRegister();
-                code.emit(CMP, ritem.register, left.register, right.register);
-                item = new CondItem(ritem, BGE);
-                break;
-
             case Tokens.LESSOREQ:
-                left = generate(tree.left).load(code);
-                right = generate(tree.right).load(code);
-                code.freeRegister(right);
-                code.freeRegister(left);
-                ritem = code.getRegister();
-                code.emit(CMP, ritem.register, left.register, right.register);
-                item = new CondItem(ritem, BGT);
-                break;
-
             case Tokens.GREATER:
-                left = generate(tree.left).load(code);
-                right = generate(tree.right).load(code);
-                code.freeRegister(right);
-                code.freeRegister(left);
-                ritem = code.getRegister();
-                code.emit(CMP, ritem.register, left.register, right.register);
-                item = new CondItem(ritem, BLE);
-                break;
-
             case Tokens.GREATEROREQ:
-                left = generate(tree.left).load(code);
-                right = generate(tree.right).load(code);
-                code.freeRegister(right);
-                code.freeRegister(left);
-                ritem = code.getRegister();
-                code.emit(CMP, ritem.register, left.register, right.register);
-                item = new CondItem(ritem, BLT);
+                item = comparison(tree);
                 break;
 
             case Tokens.CONS:
-                right = generate(tree.right).load(code);
-                ritem = code.getRegister();
+                RegisterItem right = generate(tree.right).load(code);
+                RegisterItem ritem = code.getRegister();
                 RegisterItem temp = code.getRegister();
-                code.freeRegister(temp);
                 code.emit(ADDI, temp.register, 0, 8);
                 code.emit(SYSCALL, ritem.register, temp.register, SYS_GC_ALLOC);
+                code.freeRegister(temp);
                 code.emit(STW, right.register, ritem.register, 4);
-                code.emit(ADD, right.register, ritem.register, ZERO);
-                code.freeRegister(ritem);
-                left = generate(tree.left).load(code);
+                code.freeRegister(right);
+                RegisterItem left = generate(tree.left).load(code);
+                code.emit(STW, left.register, ritem.register, 0);
                 code.freeRegister(left);
-                code.emit(STW, left.register, right.register, 0);
-                item = right;
+                item = ritem;
                 break;
 
             case Tokens.HEAD:
@@ -439,6 +422,169 @@ public class Generator implements Visitor, RISC {
         }
     }
 
+    /**
+     * Emits the arithmetic operation opcode. A constant right operand, or
+     * left one if the operation commutes, is emitted as the immediate of
+     * the instruction if it fits in 16 bits; the products and the quotients
+     * by a power of two are shifts. The left operand is evaluated first.
+     */
+    private RegisterItem arithmetic(Operation tree, int opcode, boolean commutes) {
+        Item left = generate(tree.left);
+        if (!(left instanceof ImmediateItem)) left = left.load(code);
+        Item right = generate(tree.right);
+        if (commutes && isImmediate(left) && !isImmediate(right)) {
+            Item swap = left;
+            left = right;
+            right = swap;
+        }
+        if (!isImmediate(right)) {
+            RegisterItem r = right.load(code);
+            RegisterItem l = left.load(code);
+            free(l, r);
+            RegisterItem ritem = code.getRegister();
+            code.emit(opcode, ritem.register, l.register, r.register);
+            return ritem;
+        }
+        int value = ((ImmediateItem) right).value;
+        RegisterItem l = left.load(code);
+        code.freeRegister(l);
+        RegisterItem ritem = code.getRegister();
+        int shift = log2(value);
+        if (opcode == MUL && shift > 0) {
+            code.emit(LSHI, ritem.register, l.register, shift);
+        } else if (opcode == DIV && shift > 0) {
+            // rounds towards zero: adds 2^shift - 1 to a negative dividend
+            RegisterItem temp = code.getRegister();
+            code.emit(ASHI, temp.register, l.register, -31);
+            code.emit(LSHI, temp.register, temp.register, shift - 32);
+            code.emit(ADD, ritem.register, l.register, temp.register);
+            code.freeRegister(temp);
+            code.emit(ASHI, ritem.register, ritem.register, -shift);
+        } else {
+            code.emit(immediate(opcode, value), ritem.register, l.register, value);
+        }
+        return ritem;
+    }
+
+    /**
+     * Emits the comparison of the operation, with a constant operand as the
+     * immediate of CMPI if it fits in 16 bits, and returns its condition.
+     */
+    private CondItem comparison(Operation tree) {
+        int operator = tree.operator;
+        Item left = generate(tree.left);
+        if (!(left instanceof ImmediateItem)) left = left.load(code);
+        Item right = generate(tree.right);
+        if (isImmediate(left) && !isImmediate(right)) {
+            Item swap = left;
+            left = right;
+            right = swap;
+            operator = mirror(operator);
+        }
+        RegisterItem ritem;
+        if (isImmediate(right)) {
+            int value = ((ImmediateItem) right).value;
+            RegisterItem l = left.load(code);
+            code.freeRegister(l);
+            ritem = code.getRegister();
+            code.emit(immediate(CMP, value), ritem.register, l.register, value);
+        } else {
+            RegisterItem r = right.load(code);
+            RegisterItem l = left.load(code);
+            free(l, r);
+            ritem = code.getRegister();
+            code.emit(CMP, ritem.register, l.register, r.register);
+        }
+        return new CondItem(ritem, branchIfFalse(operator));
+    }
+
+    /**
+     * returns true if the item is a constant that fits in an immediate.
+     */
+    private static boolean isImmediate(Item item) {
+        if (!(item instanceof ImmediateItem)) return false;
+        int value = ((ImmediateItem) item).value;
+        return -32768 < value && value < 65536;
+    }
+
+    /**
+     * returns the immediate form of opcode for value: signed up to 32767,
+     * unsigned above.
+     */
+    private static int immediate(int opcode, int value) {
+        boolean signed = value < 32768;
+        switch (opcode) {
+            case ADD:
+                return signed ? ADDI : ADDIU;
+            case SUB:
+                return signed ? SUBI : SUBIU;
+            case MUL:
+                return signed ? MULI : MULIU;
+            case DIV:
+                return signed ? DIVI : DIVIU;
+            case MOD:
+                return signed ? MODI : MODIU;
+            case CMP:
+                return signed ? CMPI : CMPIU;
+            default:
+                throw new Error("no immediate form of " + mnemonics[opcode]);
+        }
+    }
+
+    /**
+     * returns k if value is 2^k, with 0 < k < 31, 0 otherwise.
+     */
+    private static int log2(int value) {
+        if (value <= 1 || (value & (value - 1)) != 0) return 0;
+        return Integer.numberOfTrailingZeros(value);
+    }
+
+    /**
+     * returns the comparison of the swapped operands.
+     */
+    private static int mirror(int operator) {
+        switch (operator) {
+            case Tokens.LESS:
+                return Tokens.GREATER;
+            case Tokens.LESSOREQ:
+                return Tokens.GREATEROREQ;
+            case Tokens.GREATER:
+                return Tokens.LESS;
+            case Tokens.GREATEROREQ:
+                return Tokens.LESSOREQ;
+            default:
+                return operator;
+        }
+    }
+
+    /**
+     * returns the branch taken when the comparison is false.
+     */
+    private static int branchIfFalse(int operator) {
+        switch (operator) {
+            case Tokens.EQU:
+                return BNE;
+            case Tokens.NOTEQ:
+                return BEQ;
+            case Tokens.LESS:
+                return BGE;
+            case Tokens.LESSOREQ:
+                return BGT;
+            case Tokens.GREATER:
+                return BLE;
+            default:
+                return BLT;
+        }
+    }
+
+    /**
+     * frees two registers, the last allocated first.
+     */
+    private void free(RegisterItem a, RegisterItem b) {
+        code.freeRegister(a.register > b.register ? a : b);
+        code.freeRegister(a.register > b.register ? b : a);
+    }
+
     //noop
 
     public void caseUnitType(UnitType tree) {
@@ -20,8 +20,7 @@ public abstract class Item implements RISC {
     public void call(Code code) {
         RegisterItem target = load(code);
         code.freeRegister(target);
-        code.emit(ADDI, LNK, ZERO, code.pc() + WORD_SIZE * 2);
-        code.emit(RET, target.register);
+        code.call(target.register);
     }
 
     /**
@@ -75,19 +74,41 @@ public abstract class Item implements RISC {
     }
 
     /**
-     * in-memory value
+     * address of a function
      */
-    public static class StackItem extends Item {
-        public int offset;
+    public static class AddressItem extends Item {
+        public int address;
 
-        public StackItem(int offset) {
-            this.offset = offset;
+        public AddressItem(int address) {
+            this.address = address;
         }
 
         public RegisterItem load(Code code) {
             RegisterItem ritem = code.getRegister();
-            int stacksize = code.getStackSize();
-            code.emit(LDW, ritem.register, SP, stacksize - offset);
+            code.address(ritem.register, address);
+            return ritem;
+        }
+
+        public void freeRegisters(Code code) {
+        }
+    }
+
+    /**
+     * variable kept in a register
+     */
+    public static class VariableItem extends Item {
+        public int register;
+
+        public VariableItem(int register) {
+            this.register = register;
+        }
+
+        /**
+         * copies the variable, which can be assigned while the copy is used.
+         */
+        public RegisterItem load(Code code) {
+            RegisterItem ritem = code.getRegister();
+            code.emit(ADD, ritem.register, register, ZERO);
             return ritem;
         }
 
@@ -124,8 +145,7 @@ public abstract class Item implements RISC {
         }
 
         public int jumpIfFalse(Code code) {
-            int jmpAdr = code.pc();
-            code.emit(jmpCode, ritem.register, 0);
+            int jmpAdr = code.branch(jmpCode, ritem.register);
             code.freeRegister(ritem);
             return jmpAdr;
         }